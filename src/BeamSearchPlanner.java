@@ -0,0 +1,261 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Picks moves by looking ahead over a piece sequence that is known in
+ * advance, as in TetrisProblem. Each ply puts every surviving placement of
+ * the next piece on every board of the beam into one
+ * PlayerSkeleton.CandidateBatch, scores it in chunks spread over the pool,
+ * and keeps the best width distinct boards. A board is scored with the rows
+ * cleared on the whole path to it, so NumRowsCleared rewards earlier plies
+ * too. The move chosen is the first move on the path to the best board
+ * after depth pieces. Boards, the batch and the dedup set are reused between
+ * calls, so a planner must only be used by one thread at a time.
+ */
+public class BeamSearchPlanner {
+	// Most legal moves of any piece
+	private static final int MAX_MOVES;
+	static {
+		int maxMoves = 0;
+		for(int piece = 0; piece < State.N_PIECES; ++piece) {
+			maxMoves = Math.max(maxMoves, State.legalMoves[piece].length);
+		}
+		MAX_MOVES = maxMoves;
+	}
+	// Fewest candidates worth a task of their own
+	private static final int MIN_CHUNK = 8;
+
+	public BeamSearchPlanner(ForkJoinPool forkJoinPool, PlayerSkeleton.WeightedSumEvaluator evaluator, int width, int depth) {
+		if(width < 1 || depth < 1) {
+			throw new IllegalArgumentException("Beam width and depth must be positive");
+		}
+
+		this.mapReduce = new PlayerSkeleton.MapReduce(forkJoinPool);
+		this.evaluator = evaluator;
+		this.width = width;
+		this.depth = depth;
+		this.beam = newNodes(width);
+		this.nextBeam = newNodes(width);
+		this.keys = new long[width * MAX_MOVES];
+		this.seen = new LongHashSet(width * MAX_MOVES);
+		this.batch.clear(width * MAX_MOVES);
+		this.chunks = new Chunk[forkJoinPool.getParallelism()];
+		for(int i = 0; i < chunks.length; ++i) {
+			chunks[i] = new Chunk();
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Evaluate each ply on the calling thread when the policy says games
+	 * already use every core
+	 * @param parallelismPolicy policy shared by every player of the run, or null to always fan out
+	 */
+	public void setParallelismPolicy(PlayerSkeleton.ParallelismPolicy parallelismPolicy) {
+		this.parallelismPolicy = parallelismPolicy;
+	}
+
+	/**
+	 * Pick a move for sequence[turn]
+	 * @param state current board
+	 * @param sequence the whole piece sequence
+	 * @param turn index of the piece to play
+	 * @return index of the move in State.legalMoves[sequence[turn]]
+	 */
+	public int plan(PlayerSkeleton.ImmutableState state, int[] sequence, int turn) {
+		int plies = Math.min(depth, sequence.length - turn);
+		beam[0].set(state.getTop(), state.getColumns());
+		int beamSize = 1;
+
+		for(int ply = 0; ply < plies; ++ply) {
+			int piece = sequence[turn + ply];
+			int numMoves = State.legalMoves[piece].length;
+			int numCandidates = beamSize * numMoves;
+			batch.clear(numCandidates);
+			for(int parent = 0; parent < beamSize; ++parent) {
+				Node node = beam[parent];
+				for(int move = 0; move < numMoves; ++move) {
+					batch.add(node.top, node.columns, node.rows, PlayerSkeleton.PieceTable.placement(piece, move));
+				}
+			}
+			evaluate(numCandidates);
+
+			int nextSize = select(numCandidates, numMoves, ply == 0);
+			if(nextSize == 0) {
+				// every move loses, they all leave the same board
+				return ply == 0 ? 0 : beam[0].firstMove;
+			}
+
+			Node[] swap = beam;
+			beam = nextBeam;
+			nextBeam = swap;
+			beamSize = nextSize;
+		}
+
+		return beam[0].firstMove;
+	}
+
+	// Score the batch, in one chunk per worker when the policy allows
+	private void evaluate(int numCandidates) {
+		boolean fanOut = parallelismPolicy == null || parallelismPolicy.shouldFanOut();
+		int numChunks = fanOut ? Math.min(chunks.length, numCandidates / MIN_CHUNK) : 1;
+		if(numChunks > 1) {
+			chunkInputs.clear();
+			for(int i = 0; i < numChunks; ++i) {
+				chunks[i].from = (int)((long)numCandidates * i / numChunks);
+				chunks[i].to = (int)((long)numCandidates * (i + 1) / numChunks);
+				chunkInputs.add(chunks[i]);
+			}
+			chunkOutputs.clear();
+			mapReduce.map(EVALUATE_CHUNK, chunkInputs, chunkOutputs);
+		}
+		else {
+			batch.evaluate(evaluator, 0, numCandidates);
+		}
+	}
+
+	// Copy the best distinct surviving candidates into nextBeam, best first
+	private int select(int numCandidates, int numMoves, boolean firstPly) {
+		int numKeys = 0;
+		for(int candidate = 0; candidate < numCandidates; ++candidate) {
+			if(!batch.isLost(candidate)) {
+				// higher score first, then lower candidate for ties
+				keys[numKeys++] = ((long)sortable(batch.getScore(candidate)) << 32) | (~candidate & 0xFFFFFFFFL);
+			}
+		}
+		Arrays.sort(keys, 0, numKeys);
+
+		seen.clear();
+		int[] rowsCleared = batch.getRowsCleared();
+		int selected = 0;
+		for(int i = numKeys - 1; i >= 0 && selected < width; --i) {
+			int candidate = ~(int)keys[i];
+			Node child = nextBeam[selected];
+			batch.copyBoard(candidate, child.top, child.columns);
+			if(!seen.add(hash(child.columns))) {
+				continue;
+			}
+
+			child.rows = rowsCleared[candidate];
+			child.firstMove = firstPly ? candidate % numMoves : beam[candidate / numMoves].firstMove;
+			++selected;
+		}
+
+		return selected;
+	}
+
+	private static Node[] newNodes(int count) {
+		Node[] nodes = new Node[count];
+		for(int i = 0; i < count; ++i) {
+			nodes[i] = new Node();
+		}
+		return nodes;
+	}
+
+	// Float bits that compare like the floats as signed ints
+	private static int sortable(float value) {
+		int bits = Float.floatToIntBits(value);
+		return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+	}
+
+	private static long hash(int[] columns) {
+		long hash = 0;
+		for(int column: columns) {
+			hash = (hash + column) * 0x9E3779B97F4A7C15L;
+		}
+		return hash ^ (hash >>> 31);
+	}
+
+	private final PlayerSkeleton.MapFunc<Chunk, Chunk> EVALUATE_CHUNK = new PlayerSkeleton.MapFunc<Chunk, Chunk>() {
+		@Override
+		public Chunk map(Chunk chunk) {
+			batch.evaluate(evaluator, chunk.from, chunk.to);
+			return chunk;
+		}
+	};
+
+	/**
+	 * A board in the beam, in arrays owned by the node
+	 */
+	private static class Node {
+		// Start a search from a board, no rows cleared and no move yet
+		public void set(int[] top, int[] columns) {
+			System.arraycopy(top, 0, this.top, 0, State.COLS);
+			System.arraycopy(columns, 0, this.columns, 0, State.COLS);
+			this.rows = 0;
+			this.firstMove = -1;
+		}
+
+		private final int[] top = new int[State.COLS];
+		private final int[] columns = new int[State.COLS];
+		// rows cleared on the path to this board
+		private int rows;
+		// move of the first ply that leads to this board
+		private int firstMove;
+	}
+
+	// A range of candidates evaluated by one task
+	private static class Chunk {
+		private int from;
+		private int to;
+	}
+
+	/**
+	 * Open addressing set of non-zero longs
+	 */
+	private static class LongHashSet {
+		public LongHashSet(int expectedSize) {
+			int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) * 2;
+			this.slots = new long[capacity];
+			this.mask = capacity - 1;
+		}
+
+		/**
+		 * @return false if the value was already in the set
+		 */
+		public boolean add(long value) {
+			if(value == 0) {//0 marks an empty slot
+				value = 1;
+			}
+
+			int slot = (int)(value ^ (value >>> 32)) & mask;
+			while(slots[slot] != 0) {
+				if(slots[slot] == value) {
+					return false;
+				}
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = value;
+			return true;
+		}
+
+		public void clear() {
+			Arrays.fill(slots, 0);
+		}
+
+		private final long[] slots;
+		private final int mask;
+	}
+
+	private final PlayerSkeleton.MapReduce mapReduce;
+	private final PlayerSkeleton.WeightedSumEvaluator evaluator;
+	private final int width;
+	private final int depth;
+	private PlayerSkeleton.ParallelismPolicy parallelismPolicy;
+	private Node[] beam;
+	private Node[] nextBeam;
+	private final long[] keys;
+	private final LongHashSet seen;
+	private final PlayerSkeleton.CandidateBatch batch = new PlayerSkeleton.CandidateBatch();
+	private final Chunk[] chunks;
+	private final ArrayList<Chunk> chunkInputs = new ArrayList<Chunk>();
+	private final ArrayList<Chunk> chunkOutputs = new ArrayList<Chunk>();
+}
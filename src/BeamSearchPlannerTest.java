@@ -0,0 +1,89 @@
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BeamSearchPlannerTest {
+	private static final int PARALLELISM = 4;
+	private static final int NUM_TURNS = 500;
+
+	@Before
+	public void setUp() {
+		forkJoinPool = new ForkJoinPool(PARALLELISM);
+	}
+
+	@After
+	public void tearDown() {
+		forkJoinPool.shutdown();
+	}
+
+	@Test
+	public void depthOneIsGreedyTest() {
+		//Looking at one piece only, the beam must pick what pickMove picks
+		PlayerSkeleton.WeightedSumEvaluator evaluator =
+				new PlayerSkeleton.WeightedSumEvaluator(PlayerSkeleton.EVALUATORS, PlayerSkeleton.DEFAULT_WEIGHTS);
+		BeamSearchPlanner planner = new BeamSearchPlanner(forkJoinPool, evaluator, 4, 1);
+		PlayerSkeleton player = new PlayerSkeleton(forkJoinPool, evaluator);
+
+		Random random = new Random(3);
+		int[] sequence = new int[NUM_TURNS];
+		for(int turn = 0; turn < NUM_TURNS; ++turn) {
+			sequence[turn] = random.nextInt(State.N_PIECES);
+		}
+
+		PlayerSkeleton.ImmutableState state = new PlayerSkeleton.ImmutableState();
+		for(int turn = 0; turn < NUM_TURNS; ++turn) {
+			int piece = sequence[turn];
+			int move = planner.plan(state, sequence, turn);
+			assertEquals(player.pickMove(state, piece, State.legalMoves[piece]), move);
+
+			PlayerSkeleton.MoveResult result = state.move(PlayerSkeleton.PieceTable.placement(piece, move));
+			state = result.hasLost() ? new PlayerSkeleton.ImmutableState() : result.getState();
+		}
+	}
+
+	@Test
+	public void lastPieceTest() {
+		//The window ends on the piece being played
+		BeamSearchPlanner planner = new BeamSearchPlanner(forkJoinPool,
+				new PlayerSkeleton.WeightedSumEvaluator(PlayerSkeleton.EVALUATORS, PlayerSkeleton.DEFAULT_WEIGHTS), 4, 3);
+		int move = planner.plan(new PlayerSkeleton.ImmutableState(), new int[] { 1 }, 0);
+		assertTrue(move >= 0 && move < State.legalMoves[1].length);
+	}
+
+	@Test
+	public void firstPlyFansOutTest() {
+		final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+		PlayerSkeleton.MoveEvaluator threadRecorder = new PlayerSkeleton.MoveEvaluator() {
+			@Override
+			public Float map(PlayerSkeleton.MoveResult result) {
+				threads.add(Thread.currentThread());
+				//Long enough for idle workers to steal the other chunks
+				try {
+					Thread.sleep(1);
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return (float)result.getRowsCleared();
+			}
+		};
+		BeamSearchPlanner planner = new BeamSearchPlanner(forkJoinPool,
+				new PlayerSkeleton.WeightedSumEvaluator(new PlayerSkeleton.MoveEvaluator[] { threadRecorder }, new float[] { 1.0f }),
+				4, 1);
+
+		//34 moves of a single board, enough for a chunk per worker
+		planner.plan(new PlayerSkeleton.ImmutableState(), new int[] { 2 }, 0);
+		assertTrue("Candidates ran on " + threads, threads.size() > 1);
+		assertFalse(threads.contains(Thread.currentThread()));
+	}
+
+	private ForkJoinPool forkJoinPool;
+}
@@ -0,0 +1,86 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Packs the occupancy of a board into 210 bits, one bit per cell. Bit
+ * (row * COLS + col) is set when the cell is filled. Turn numbers are not
+ * kept.
+ */
+public class Bitboard {
+	public static final int NUM_BITS = State.ROWS * State.COLS;
+	public static final int NUM_LONGS = (NUM_BITS + 63) / 64;
+	public static final int NUM_BYTES = (NUM_BITS + 7) / 8;
+
+	/**
+	 * Pack a field into bits
+	 * @param field the field to pack
+	 * @param bits destination, must hold at least NUM_LONGS longs
+	 */
+	public static void pack(int[][] field, long[] bits) {
+		for(int i = 0; i < NUM_LONGS; ++i) {
+			bits[i] = 0L;
+		}
+
+		for(int row = 0; row < State.ROWS; ++row) {
+			for(int col = 0; col < State.COLS; ++col) {
+				if(field[row][col] != 0) {
+					int bit = row * State.COLS + col;
+					bits[bit >>> 6] |= 1L << (bit & 63);
+				}
+			}
+		}
+	}
+
+	public static boolean isSet(long[] bits, int row, int col) {
+		int bit = row * State.COLS + col;
+		return (bits[bit >>> 6] & (1L << (bit & 63))) != 0;
+	}
+
+	/**
+	 * Unpack bits into a field and its column heights
+	 * @param bits packed board
+	 * @param turn value written into filled cells
+	 * @param field destination field
+	 * @param top destination column heights
+	 */
+	public static void unpack(long[] bits, int turn, int[][] field, int[] top) {
+		for(int col = 0; col < State.COLS; ++col) {
+			top[col] = 0;
+		}
+
+		for(int row = 0; row < State.ROWS; ++row) {
+			for(int col = 0; col < State.COLS; ++col) {
+				if(isSet(bits, row, col)) {
+					field[row][col] = turn;
+					top[col] = row + 1;
+				}
+				else {
+					field[row][col] = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write exactly NUM_BYTES bytes
+	 */
+	public static void write(long[] bits, DataOutput out) throws IOException {
+		for(int i = 0; i < NUM_BYTES; ++i) {
+			out.writeByte((int)(bits[i >>> 3] >>> ((i & 7) * 8)));
+		}
+	}
+
+	/**
+	 * Read exactly NUM_BYTES bytes
+	 */
+	public static void read(DataInput in, long[] bits) throws IOException {
+		for(int i = 0; i < NUM_LONGS; ++i) {
+			bits[i] = 0L;
+		}
+
+		for(int i = 0; i < NUM_BYTES; ++i) {
+			bits[i >>> 3] |= (in.readUnsignedByte() & 0xFFL) << ((i & 7) * 8);
+		}
+	}
+}
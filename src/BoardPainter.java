@@ -0,0 +1,100 @@
+/**
+ * Draws a board onto a TLabel incrementally. It remembers the occupancy and
+ * column tops it drew last and only repaints the rectangle of cells that
+ * changed since, so a placement costs a few cells and a line clear a few
+ * rows. Only that rectangle is pushed on-screen.
+ */
+public class BoardPainter {
+	// Strokes are antialiased and straddle cell borders
+	private static final int PADDING = 2;
+
+	public BoardPainter(TLabel label) {
+		this.label = label;
+	}
+
+	public TLabel getLabel() {
+		return label;
+	}
+
+	/**
+	 * Force a full redraw next time, e.g. after something else drew over the board
+	 */
+	public void invalidate() {
+		valid = false;
+	}
+
+	public void draw(int[][] field, int[] top) {
+		Bitboard.pack(field, bits);
+
+		if(!valid) {
+			State.draw(label, field, top);
+			remember(top);
+			valid = true;
+			return;
+		}
+
+		minCol = State.COLS;
+		maxCol = -1;
+		minRow = State.ROWS;
+		maxRow = -1;
+
+		for(int i = 0; i < Bitboard.NUM_LONGS; ++i) {
+			long changed = bits[i] ^ drawnBits[i];
+			while(changed != 0) {
+				int bit = i * 64 + Long.numberOfTrailingZeros(changed);
+				damage(bit % State.COLS, bit / State.COLS);
+				changed &= changed - 1;
+			}
+		}
+
+		// A column top marker lies on a cell border
+		for(int col = 0; col < State.COLS; ++col) {
+			if(top[col] != drawnTop[col]) {
+				damage(col, drawnTop[col] - 1);
+				damage(col, drawnTop[col]);
+				damage(col, top[col] - 1);
+				damage(col, top[col]);
+			}
+		}
+
+		if(maxCol < 0) {
+			return;
+		}
+
+		double x = minCol;
+		double y = minRow;
+		double w = maxCol + 1 - minCol;
+		double h = maxRow + 1 - minRow;
+
+		label.setClipLL(x, y, w, h, PADDING);
+		label.clear();
+		// Neighbouring cells have strokes reaching into the damaged area
+		State.drawCells(label, field, top,
+				Math.max(0, minCol - 1), Math.min(State.COLS, maxCol + 2),
+				Math.max(0, minRow - 1), Math.min(State.ROWS, maxRow + 2));
+		label.clearClip();
+		label.showLL(x, y, w, h, PADDING);
+
+		remember(top);
+	}
+
+	private void damage(int col, int row) {
+		row = Math.max(0, Math.min(row, State.ROWS - 1));
+		minCol = Math.min(minCol, col);
+		maxCol = Math.max(maxCol, col);
+		minRow = Math.min(minRow, row);
+		maxRow = Math.max(maxRow, row);
+	}
+
+	private void remember(int[] top) {
+		System.arraycopy(bits, 0, drawnBits, 0, Bitboard.NUM_LONGS);
+		System.arraycopy(top, 0, drawnTop, 0, State.COLS);
+	}
+
+	private final TLabel label;
+	private final long[] bits = new long[Bitboard.NUM_LONGS];
+	private final long[] drawnBits = new long[Bitboard.NUM_LONGS];
+	private final int[] drawnTop = new int[State.COLS];
+	private boolean valid = false;
+	private int minCol, maxCol, minRow, maxRow;
+}
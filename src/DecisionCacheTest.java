@@ -0,0 +1,65 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DecisionCacheTest {
+	@Test
+	public void keyTest() {
+		PlayerSkeleton.ImmutableState state = new PlayerSkeleton.ImmutableState();
+		assertNotEquals(PlayerSkeleton.DecisionCache.NO_KEY, PlayerSkeleton.DecisionCache.keyOf(state, 0));
+		assertNotEquals(PlayerSkeleton.DecisionCache.keyOf(state, 0), PlayerSkeleton.DecisionCache.keyOf(state, 1));
+
+		//An S lying flat on an empty board leaves a hole under it
+		state = state.move(PlayerSkeleton.PieceTable.placement(6, 0, 0)).getState();
+		assertEquals(1, state.getFeatures().getHoles());
+		assertEquals(PlayerSkeleton.DecisionCache.NO_KEY, PlayerSkeleton.DecisionCache.keyOf(state, 0));
+	}
+
+	@Test
+	public void evictionTest() {
+		//One set only, every key competes for the same WAYS entries
+		PlayerSkeleton.DecisionCache cache =
+				new PlayerSkeleton.DecisionCache(PlayerSkeleton.DecisionCache.ENTRY_BYTES * PlayerSkeleton.DecisionCache.WAYS);
+		assertEquals(PlayerSkeleton.DecisionCache.WAYS, cache.getCapacity());
+
+		for(int key = 0; key < 100; ++key) {
+			cache.get(0);//keep key 0 referenced
+			cache.put(key, key % 10, key);
+		}
+
+		PlayerSkeleton.DecisionCache.Entry entry = cache.get(0);
+		assertNotNull(entry);
+		assertEquals(0, entry.getMove());
+		assertEquals(0.0f, entry.getScore(), 0.0f);
+		assertNull(cache.get(1));
+		assertTrue(cache.getEvictions() > 0);
+		assertTrue(cache.getHitRate() > 0.0);
+	}
+
+	@Test
+	public void pickMoveTest() {
+		ForkJoinPool forkJoinPool = new ForkJoinPool(1);
+		PlayerSkeleton player = new PlayerSkeleton(forkJoinPool);
+		PlayerSkeleton cachedPlayer = new PlayerSkeleton(forkJoinPool);
+		PlayerSkeleton.DecisionCache cache = new PlayerSkeleton.DecisionCache(1 << 20);
+		cachedPlayer.setDecisionCache(cache);
+
+		//Cached decisions must be the ones pickMove makes
+		Random random = new Random(3);
+		PlayerSkeleton.ImmutableState state = new PlayerSkeleton.ImmutableState();
+		for(int turn = 0; turn < 20000; ++turn) {
+			int piece = random.nextInt(State.N_PIECES);
+			int move = player.pickMove(state, piece, State.legalMoves[piece]);
+			assertEquals(move, cachedPlayer.pickMove(state, piece, State.legalMoves[piece]));
+
+			PlayerSkeleton.MoveResult result = state.move(PlayerSkeleton.PieceTable.placement(piece, move));
+			state = result.hasLost() ? new PlayerSkeleton.ImmutableState() : result.getState();
+		}
+		assertTrue(cache.getHits() > 0);
+
+		forkJoinPool.shutdown();
+	}
+}
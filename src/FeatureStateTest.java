@@ -0,0 +1,101 @@
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FeatureStateTest {
+	@Test
+	public void emptyTest() {
+		PlayerSkeleton.ImmutableState state = new PlayerSkeleton.ImmutableState();
+		assertEquals(PlayerSkeleton.FeatureState.compute(state.getField(), state.getTop()), state.getFeatures());
+	}
+
+	@Test
+	public void incrementalTest() {
+		Random random = new Random(42);
+		for(int i = 0; i < 1000; ++i) {//Play 1000 games
+			PlayerSkeleton.ImmutableState state = new PlayerSkeleton.ImmutableState();
+			boolean hasLost = false;
+			while(!hasLost) {
+				int piece = random.nextInt(State.N_PIECES);
+				int[][] moves = State.legalMoves[piece];
+
+				//Every candidate must match a full recompute, including line clears
+				PlayerSkeleton.MoveResult chosen = null;
+				int choice = random.nextInt(moves.length);
+				for(int move = 0; move < moves.length; ++move) {
+					PlayerSkeleton.MoveResult result = state.move(piece, moves[move][0], moves[move][1]);
+					assertFeaturesConsistent(result.getState());
+					if(move == choice) {
+						chosen = result;
+					}
+				}
+
+				state = chosen.getState();
+				hasLost = chosen.hasLost();
+			}
+		}
+	}
+
+	@Test
+	public void mutableStateTest() {
+		Random random = new Random(7);
+		State mutableState = new State();
+		PlayerSkeleton.ImmutableState immutableState = new PlayerSkeleton.ImmutableState(mutableState);
+		while(!mutableState.hasLost()) {
+			int piece = mutableState.getNextPiece();
+			int[][] moves = mutableState.legalMoves();
+			int move = random.nextInt(moves.length);
+
+			mutableState.makeMove(move);
+			immutableState = immutableState.move(piece, moves[move][0], moves[move][1]).getState();
+			assertEquals(new PlayerSkeleton.ImmutableState(mutableState).getFeatures(), immutableState.getFeatures());
+		}
+	}
+
+	private static void assertFeaturesConsistent(PlayerSkeleton.ImmutableState state) {
+		int[][] field = state.getField();
+		int[] top = state.getTop();
+		PlayerSkeleton.FeatureState features = state.getFeatures();
+		assertEquals(PlayerSkeleton.FeatureState.compute(field, top), features);
+		assertArrayEquals(PlayerSkeleton.ImmutableState.columnsOf(field), state.getColumns());
+		for(int col = 0; col < State.COLS; ++col) {
+			assertEquals(top[col], 32 - Integer.numberOfLeadingZeros(state.getColumns()[col]));
+		}
+
+		//Compare with the definitions the evaluators used before features were cached
+		int roughness = 0;
+		for(int col = 0; col < State.COLS - 1; ++col) {
+			roughness += Math.abs(top[col] - top[col + 1]);
+		}
+		assertEquals(roughness, features.getRoughness());
+
+		int pitDepths = 0;
+		for(int col = 0; col < State.COLS; ++col) {
+			int leftDiff = col > 0 ? top[col - 1] - top[col] : Integer.MAX_VALUE;
+			int rightDiff = col < State.COLS - 1 ? top[col + 1] - top[col] : Integer.MAX_VALUE;
+			int depth = Math.min(leftDiff, rightDiff);
+			if(depth > 2) {
+				pitDepths += depth;
+			}
+		}
+		assertEquals(pitDepths, features.getPitDepths());
+
+		int holes = 0;
+		int heightSum = 0;
+		int maxHeight = 0;
+		for(int col = 0; col < State.COLS; ++col) {
+			for(int row = 0; row < top[col]; ++row) {
+				if(field[row][col] == 0) {
+					++holes;
+				}
+			}
+			heightSum += top[col];
+			maxHeight = Math.max(maxHeight, top[col]);
+		}
+		assertEquals(holes, features.getHoles());
+		assertEquals(heightSum, features.getHeightSum());
+		assertEquals(maxHeight, features.getMaxHeight());
+	}
+}
@@ -0,0 +1,150 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Writes a PNG frame sequence of a recorded game without a display. Frames
+ * are rendered and encoded on a worker pool, each worker reusing its own
+ * HeadlessRenderer image.
+ *
+ * Usage: FrameExporter recording outputDir [step] [from] [to]
+ * Turn the frames into a video with e.g. ffmpeg -i frame-%08d.png game.mp4
+ */
+public class FrameExporter {
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		if(args.length < 2) {
+			System.out.println("Usage: FrameExporter recording outputDir [step] [from] [to]");
+			return;
+		}
+
+		try {
+			GameReplay replay = new GameReplay(args[0]);
+			int step = args.length >= 3 ? Integer.parseInt(args[2]) : 1;
+			int from = args.length >= 4 ? Integer.parseInt(args[3]) : 0;
+			int to = Math.min(args.length >= 5 ? Integer.parseInt(args[4]) : replay.getNumMoves(), replay.getNumMoves());
+			if(step < 1 || from < 0 || from > to) {
+				System.out.println("Need step >= 1 and 0 <= from <= to, the game has " + replay.getNumMoves() + " moves");
+				replay.close();
+				return;
+			}
+			File outputDir = new File(args[1]);
+			outputDir.mkdirs();
+
+			FrameExporter exporter = new FrameExporter(outputDir, Runtime.getRuntime().availableProcessors());
+			int numFrames = 0;
+			try {
+				GameReplay.Position position = replay.seek(from);
+				while(true) {
+					int moveNumber = position.getMoveNumber();
+					int nextPiece = moveNumber < replay.getNumMoves() ? replay.getPiece(moveNumber) : -1;
+					exporter.submit(numFrames++, position.getState(), nextPiece,
+							"Move " + moveNumber + "  Rows " + position.getRowsCleared());
+
+					if(moveNumber + step > to) {
+						break;
+					}
+					//walk forward unless jumping over a keyframe is cheaper
+					if(step < replay.getKeyframeInterval()) {
+						for(int i = 0; i < step; ++i) {
+							position = replay.step(position);
+						}
+					}
+					else {
+						position = replay.seek(moveNumber + step);
+					}
+				}
+			}
+			finally {
+				exporter.finish();
+				replay.close();
+			}
+
+			System.out.println("Wrote " + numFrames + " frames to " + outputDir);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	public FrameExporter(File outputDir, int numThreads) {
+		this(outputDir, numThreads, HeadlessRenderer.DEFAULT_CELL_SIZE);
+	}
+
+	public FrameExporter(File outputDir, int numThreads, final int cellSize) {
+		this.outputDir = outputDir;
+		this.executorService = Executors.newFixedThreadPool(numThreads);
+		// Bounds the number of boards waiting for a worker
+		this.inFlight = new Semaphore(numThreads * 2);
+		this.renderers = new ThreadLocal<HeadlessRenderer>() {
+			@Override
+			protected HeadlessRenderer initialValue() {
+				return new HeadlessRenderer(cellSize);
+			}
+		};
+	}
+
+	/**
+	 * Queue a frame, blocks while the workers are behind
+	 * @param frameIndex index used in the file name
+	 * @param state the board
+	 * @param nextPiece piece to show above the board or -1 for none
+	 * @param caption text to show above the board
+	 */
+	public void submit(final int frameIndex, final PlayerSkeleton.ImmutableState state,
+			final int nextPiece, final String caption) throws IOException, InterruptedException {
+		rethrow();
+		inFlight.acquire();
+		executorService.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					BufferedImage image = renderers.get().render(state, nextPiece, caption);
+					ImageIO.write(image, "png", new File(outputDir, String.format("frame-%08d.png", frameIndex)));
+				}
+				catch(Exception e) {
+					error.compareAndSet(null, e);
+				}
+				finally {
+					inFlight.release();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Wait for all queued frames to be written and stop the workers
+	 */
+	public void finish() throws IOException, InterruptedException {
+		executorService.shutdown();
+		executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		rethrow();
+	}
+
+	// Rethrow the first failure of a worker
+	private void rethrow() throws IOException {
+		Exception e = error.get();
+		if(e instanceof IOException) {
+			throw (IOException)e;
+		}
+		if(e instanceof RuntimeException) {
+			throw (RuntimeException)e;
+		}
+		if(e != null) {
+			throw new IOException(e);
+		}
+	}
+
+	private final File outputDir;
+	private final ExecutorService executorService;
+	private final Semaphore inFlight;
+	private final ThreadLocal<HeadlessRenderer> renderers;
+	private final AtomicReference<Exception> error = new AtomicReference<Exception>();
+}
@@ -0,0 +1,52 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Executors for game-level work, kept apart from the ForkJoinPool that
+ * evaluates moves where virtual threads allow it. A game blocked on
+ * recording or on the pool then holds its own thread instead of a
+ * fork/join worker, so the pool never has to add compensation threads.
+ */
+public class GameExecutors {
+	// Compiled for Java 17, so Executors.newVirtualThreadPerTaskExecutor is looked up at runtime
+	private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+	/**
+	 * @return whether newPerGameExecutor gives virtual threads
+	 */
+	public static boolean hasVirtualThreads() {
+		return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+	}
+
+	/**
+	 * A new thread per task on runtimes with virtual threads (Java 21 and
+	 * later). Older runtimes get movePool itself: a second pool of platform
+	 * threads next to it would keep twice as many threads busy as there are
+	 * cores, while on the move pool a game that does not fan out simply
+	 * decides its moves on the worker running it.
+	 * @param movePool pool that moves are evaluated on
+	 */
+	public static ExecutorService newPerGameExecutor(ForkJoinPool movePool) {
+		if(NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+			try {
+				return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+			}
+			catch(ReflectiveOperationException e) {
+				System.err.println("Virtual threads unavailable: " + e);
+			}
+		}
+
+		return movePool;
+	}
+
+	private static Method findVirtualThreadExecutor() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		}
+		catch(NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
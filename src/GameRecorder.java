@@ -0,0 +1,76 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Records a game as a move log plus a keyframe index.
+ *
+ * The move log (path + ".moves") holds two bytes per move: the piece and the
+ * index of the move in State.legalMoves[piece].
+ *
+ * The index (path + ".index") starts with the keyframe interval N and then
+ * holds one keyframe per N moves, starting with the empty board: the number
+ * of rows cleared so far followed by the packed board (see Bitboard).
+ * GameReplay uses it to seek without replaying the whole game.
+ */
+public class GameRecorder {
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 1000;
+
+	public GameRecorder(String path) throws IOException {
+		this(path, DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	public GameRecorder(String path, int keyframeInterval) throws IOException {
+		this.keyframeInterval = keyframeInterval;
+		this.moves = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(path + GameReplay.MOVES_SUFFIX)));
+		this.index = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(path + GameReplay.INDEX_SUFFIX)));
+
+		index.writeInt(keyframeInterval);
+		writeKeyframe(new int[State.ROWS][State.COLS], 0);
+	}
+
+	/**
+	 * Record a move after it has been made
+	 * @param piece the piece that was played
+	 * @param move index of the move in State.legalMoves[piece]
+	 * @param field the field after the move
+	 * @param rowsCleared total number of rows cleared after the move
+	 */
+	public void record(int piece, int move, int[][] field, int rowsCleared) throws IOException {
+		moves.writeByte(piece);
+		moves.writeByte(move);
+		++numMoves;
+
+		if(numMoves % keyframeInterval == 0) {
+			writeKeyframe(field, rowsCleared);
+		}
+	}
+
+	public int getNumMoves() {
+		return numMoves;
+	}
+
+	public void close() throws IOException {
+		try {
+			moves.close();
+		}
+		finally {
+			index.close();
+		}
+	}
+
+	private void writeKeyframe(int[][] field, int rowsCleared) throws IOException {
+		Bitboard.pack(field, bits);
+		index.writeInt(rowsCleared);
+		Bitboard.write(bits, index);
+	}
+
+	private final int keyframeInterval;
+	private final DataOutputStream moves;
+	private final DataOutputStream index;
+	private final long[] bits = new long[Bitboard.NUM_LONGS];
+	private int numMoves = 0;
+}
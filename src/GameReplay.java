@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Random access into a game written by GameRecorder. Seeking to any move
+ * loads the closest keyframe before it and replays at most one keyframe
+ * interval of moves.
+ */
+public class GameReplay {
+	public static final String MOVES_SUFFIX = ".moves";
+	public static final String INDEX_SUFFIX = ".index";
+
+	private static final int MOVE_BYTES = 2;
+	private static final int HEADER_BYTES = 4;
+	private static final int KEYFRAME_BYTES = 4 + Bitboard.NUM_BYTES;
+
+	public GameReplay(String path) throws IOException {
+		moves = new RandomAccessFile(path + MOVES_SUFFIX, "r");
+		index = new RandomAccessFile(path + INDEX_SUFFIX, "r");
+		keyframeInterval = index.readInt();
+		numMoves = (int)(moves.length() / MOVE_BYTES);
+		numKeyframes = (int)((index.length() - HEADER_BYTES) / KEYFRAME_BYTES);
+		moveBuffer = new byte[keyframeInterval * MOVE_BYTES];
+	}
+
+	public int getNumMoves() {
+		return numMoves;
+	}
+
+	public int getKeyframeInterval() {
+		return keyframeInterval;
+	}
+
+	/**
+	 * Reconstruct the board after the given number of moves. Cells restored
+	 * from a keyframe carry the keyframe's turn number since the index does
+	 * not keep turn numbers. Keyframes do not keep whether the game was lost
+	 * either, so the move leading to the position is always replayed.
+	 * @param moveNumber number of moves played, between 0 and getNumMoves()
+	 * @return the position
+	 */
+	public synchronized Position seek(int moveNumber) throws IOException {
+		moveNumber = Math.max(0, Math.min(moveNumber, numMoves));
+		int keyframe = moveNumber == 0 ? 0 : Math.min((moveNumber - 1) / keyframeInterval, numKeyframes - 1);
+		int turn = keyframe * keyframeInterval;
+
+		index.seek(HEADER_BYTES + (long)keyframe * KEYFRAME_BYTES);
+		int rowsCleared = index.readInt();
+		Bitboard.read(index, bits);
+		int[][] field = new int[State.ROWS][State.COLS];
+		int[] top = new int[State.COLS];
+		Bitboard.unpack(bits, turn, field, top);
+		PlayerSkeleton.ImmutableState state = new PlayerSkeleton.ImmutableState(field, top, turn);
+
+		int numReplayed = moveNumber - turn;
+		if(numReplayed * MOVE_BYTES > moveBuffer.length) {//index is shorter than the move log
+			moveBuffer = new byte[numReplayed * MOVE_BYTES];
+		}
+		moves.seek((long)turn * MOVE_BYTES);
+		moves.readFully(moveBuffer, 0, numReplayed * MOVE_BYTES);
+
+		boolean lost = false;
+		for(int i = 0; i < numReplayed; ++i) {
+			int piece = moveBuffer[i * MOVE_BYTES];
+			int[] move = State.legalMoves[piece][moveBuffer[i * MOVE_BYTES + 1]];
+			PlayerSkeleton.MoveResult result = state.move(piece, move[State.ORIENT], move[State.SLOT]);
+			state = result.getState();
+			rowsCleared += result.getRowsCleared();
+			lost = result.hasLost();
+		}
+
+		return new Position(moveNumber, state, rowsCleared, lost);
+	}
+
+	/**
+	 * Play the move that follows a position
+	 * @param position a position from this replay, before the last move
+	 * @return the next position
+	 */
+	public synchronized Position step(Position position) throws IOException {
+		int moveNumber = position.getMoveNumber();
+		moves.seek((long)moveNumber * MOVE_BYTES);
+		int piece = moves.readUnsignedByte();
+		int[] move = State.legalMoves[piece][moves.readUnsignedByte()];
+		PlayerSkeleton.MoveResult result = position.getState().move(piece, move[State.ORIENT], move[State.SLOT]);
+
+		return new Position(moveNumber + 1, result.getState(),
+				position.getRowsCleared() + result.getRowsCleared(), result.hasLost());
+	}
+
+	/**
+	 * Piece played on a move, which is the next piece shown at the position before it
+	 * @param moveNumber zero based move number, below getNumMoves()
+	 * @return the piece
+	 */
+	public synchronized int getPiece(int moveNumber) throws IOException {
+		moves.seek((long)moveNumber * MOVE_BYTES);
+		return moves.readUnsignedByte();
+	}
+
+	public void close() throws IOException {
+		try {
+			moves.close();
+		}
+		finally {
+			index.close();
+		}
+	}
+
+	private final RandomAccessFile moves;
+	private final RandomAccessFile index;
+	private final int keyframeInterval;
+	private final int numMoves;
+	private final int numKeyframes;
+	private byte[] moveBuffer;
+	private final long[] bits = new long[Bitboard.NUM_LONGS];
+
+	/**
+	 * A board reconstructed from a recording
+	 */
+	public static class Position {
+		public Position(int moveNumber, PlayerSkeleton.ImmutableState state, int rowsCleared, boolean lost) {
+			this.moveNumber = moveNumber;
+			this.state = state;
+			this.rowsCleared = rowsCleared;
+			this.lost = lost;
+		}
+
+		public int getMoveNumber() {
+			return moveNumber;
+		}
+
+		public PlayerSkeleton.ImmutableState getState() {
+			return state;
+		}
+
+		public int getRowsCleared() {
+			return rowsCleared;
+		}
+
+		public boolean hasLost() {
+			return lost;
+		}
+
+		private final int moveNumber;
+		private final PlayerSkeleton.ImmutableState state;
+		private final int rowsCleared;
+		private final boolean lost;
+	}
+}
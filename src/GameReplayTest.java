@@ -0,0 +1,50 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GameReplayTest {
+	@Test
+	public void seekToLastKeyframeTest() throws IOException {
+		//Stack every piece in its first legal move until the game is lost
+		Random random = new Random(5);
+		PlayerSkeleton.ImmutableState state =
+				new PlayerSkeleton.ImmutableState(new int[State.ROWS][State.COLS], new int[State.COLS], 0);
+		ArrayList<int[][]> fields = new ArrayList<int[][]>();
+		ArrayList<Integer> pieces = new ArrayList<Integer>();
+		boolean lost = false;
+		while(!lost) {
+			int piece = random.nextInt(State.N_PIECES);
+			PlayerSkeleton.MoveResult result = state.move(PlayerSkeleton.PieceTable.placement(piece, 0));
+			state = result.getState();
+			lost = result.hasLost();
+			pieces.add(piece);
+			fields.add(state.getField());
+		}
+
+		//The last move lands exactly on a keyframe
+		int numMoves = pieces.size();
+		File path = File.createTempFile("game", "");
+		path.delete();
+		new File(path.getPath() + GameReplay.MOVES_SUFFIX).deleteOnExit();
+		new File(path.getPath() + GameReplay.INDEX_SUFFIX).deleteOnExit();
+		GameRecorder recorder = new GameRecorder(path.getPath(), numMoves);
+		for(int i = 0; i < numMoves; ++i) {
+			recorder.record(pieces.get(i), 0, fields.get(i), 0);
+		}
+		recorder.close();
+
+		GameReplay replay = new GameReplay(path.getPath());
+		assertEquals(numMoves, replay.getNumMoves());
+		assertFalse(replay.seek(0).hasLost());
+		assertFalse(replay.seek(numMoves - 1).hasLost());
+		GameReplay.Position last = replay.seek(numMoves);
+		assertTrue(last.hasLost());
+		assertArrayEquals(state.getTop(), last.getState().getTop());
+		replay.close();
+	}
+}
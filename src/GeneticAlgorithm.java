@@ -14,7 +14,7 @@ public class GeneticAlgorithm {
 		int populationSize = config.getPopulationSize();
 		float crossoverRate = config.getCrossoverRate();
 		float mutationRate = config.getMutationRate();
-		PlayerSkeleton.MapReduce mapReduce = new PlayerSkeleton.MapReduce(config.getForkJoinPool());
+		PlayerSkeleton.MapReduce mapReduce = new PlayerSkeleton.MapReduce(config.getFitnessExecutor());
 		PlayerSkeleton.MapFunc<T, ChromosomeFitnessPair<T>> fitnessFunction = new FitnessFunction<T>(problemDomain);
 
 		//Create a population
@@ -23,9 +23,14 @@ public class GeneticAlgorithm {
 			population.add(problemDomain.newRandomChromosome());
 		}
 
+		int generation = 0;
 		do {
+			TetrisEvents.Generation generationEvent = new TetrisEvents.Generation();
+			generationEvent.begin();
+
 			//Evaluate fitness of population
 			problemDomain.beginGeneration();
+			int firstResult = fitnessResults.size();
 			mapReduce.map(fitnessFunction, population, fitnessResults);
 
 			//Create next generation
@@ -62,6 +67,23 @@ public class GeneticAlgorithm {
 					}
 				}
 			}
+
+			generationEvent.end();
+			if(generationEvent.shouldCommit()) {
+				float bestFitness = -Float.MAX_VALUE;
+				float sumFitness = 0.0f;
+				for(int i = firstResult; i < fitnessResults.size(); ++i) {
+					float fitness = fitnessResults.get(i).getFitness();
+					bestFitness = Math.max(bestFitness, fitness);
+					sumFitness += fitness;
+				}
+				generationEvent.generation = generation;
+				generationEvent.populationSize = populationSize;
+				generationEvent.bestFitness = bestFitness;
+				generationEvent.meanFitness = sumFitness / (fitnessResults.size() - firstResult);
+				generationEvent.commit();
+			}
+			++generation;
 		} while(problemDomain.endGeneration(fitnessResults));
 
 		//Find the best chromosome
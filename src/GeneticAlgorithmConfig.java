@@ -1,3 +1,4 @@
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ForkJoinPool;
 
 
@@ -10,6 +11,18 @@ public class GeneticAlgorithmConfig {
 		return forkJoinPool;
 	}
 
+	/**
+	 * Executor for fitness evaluations, the fork/join pool unless set
+	 */
+	public ExecutorService getFitnessExecutor() {
+		return fitnessExecutor != null ? fitnessExecutor : forkJoinPool;
+	}
+
+	public GeneticAlgorithmConfig setFitnessExecutor(ExecutorService value) {
+		fitnessExecutor = value;
+		return this;
+	}
+
 	public float getCrossoverRate() {
 		return crossoverRate;
 	}
@@ -38,6 +51,7 @@ public class GeneticAlgorithmConfig {
 	}
 
 	private ForkJoinPool forkJoinPool;
+	private ExecutorService fitnessExecutor = null;
 	private float crossoverRate = 0.6f;
 	private float mutationRate = 0.01f;
 	private int populationSize = 10;
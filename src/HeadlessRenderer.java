@@ -0,0 +1,114 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Draws boards straight into a BufferedImage without any window, so it works
+ * with java.awt.headless=true. The image is reused between calls, copy or
+ * encode it before rendering the next board. Not thread safe, use one
+ * renderer per thread.
+ */
+public class HeadlessRenderer {
+	public static final int DEFAULT_CELL_SIZE = 16;
+	// Rows above the board for the next piece, same as TFrame
+	private static final int PREVIEW_ROWS = 5;
+
+	public HeadlessRenderer() {
+		this(DEFAULT_CELL_SIZE);
+	}
+
+	public HeadlessRenderer(int cellSize) {
+		this.cellSize = cellSize;
+		this.margin = cellSize / 2;
+		this.image = new BufferedImage(
+				State.COLS * cellSize + 2 * margin,
+				(State.ROWS + PREVIEW_ROWS) * cellSize + 2 * margin,
+				BufferedImage.TYPE_INT_RGB);
+		this.graphics = image.createGraphics();
+		graphics.setFont(graphics.getFont().deriveFont(cellSize * 0.75f));
+	}
+
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	public BufferedImage render(State s) {
+		return render(s.getField(), s.getTop(), s.hasLost() ? -1 : s.getNextPiece(),
+				"Rows " + s.getRowsCleared());
+	}
+
+	public BufferedImage render(PlayerSkeleton.ImmutableState state, int nextPiece, String caption) {
+		return render(state.getField(), state.getTop(), nextPiece, caption);
+	}
+
+	/**
+	 * Render a board
+	 * @param field the field
+	 * @param top column heights
+	 * @param nextPiece piece to show above the board or -1 for none
+	 * @param caption text to show above the board or null for none
+	 * @return the reused image
+	 */
+	public BufferedImage render(int[][] field, int[] top, int nextPiece, String caption) {
+		graphics.setColor(TLabel.DEFAULT_CLEAR_COLOR);
+		graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+
+		for(int c = 0; c < State.COLS; c++) {
+			for(int r = 0; r < top[c]; r++) {
+				if(field[r][c] != 0) {
+					drawBrick(c, r);
+				}
+			}
+		}
+
+		if(nextPiece >= 0) {
+			int placement = PlayerSkeleton.PieceTable.placement(nextPiece, 0);
+			int skirt = placement * PlayerSkeleton.PieceTable.MAX_WIDTH;
+			for(int i = 0; i < PlayerSkeleton.PieceTable.width[placement]; i++) {
+				for(int j = PlayerSkeleton.PieceTable.bottom[skirt + i]; j < PlayerSkeleton.PieceTable.top[skirt + i]; j++) {
+					drawBrick(i, j + State.ROWS + 1);
+				}
+			}
+		}
+
+		//outline board
+		graphics.setColor(TLabel.DEFAULT_PEN_COLOR);
+		graphics.drawLine(x(0), y(0), x(0), y(State.ROWS + PREVIEW_ROWS));
+		graphics.drawLine(x(State.COLS), y(0), x(State.COLS), y(State.ROWS + PREVIEW_ROWS));
+		graphics.drawLine(x(0), y(0), x(State.COLS), y(0));
+		graphics.drawLine(x(0), y(State.ROWS - 1), x(State.COLS), y(State.ROWS - 1));
+
+		graphics.setColor(Color.red);
+		for(int i = 0; i < State.COLS; i++) {
+			graphics.drawLine(x(i), y(top[i]), x(i + 1), y(top[i]));
+		}
+
+		if(caption != null) {
+			graphics.setColor(TLabel.DEFAULT_PEN_COLOR);
+			graphics.drawString(caption, x(0) + 2, y(State.ROWS + PREVIEW_ROWS) + graphics.getFontMetrics().getAscent());
+		}
+
+		return image;
+	}
+
+	private void drawBrick(int c, int r) {
+		graphics.setColor(State.brickCol);
+		graphics.fillRect(x(c), y(r + 1), cellSize, cellSize);
+		graphics.setColor(TLabel.DEFAULT_PEN_COLOR);
+		graphics.drawRect(x(c), y(r + 1), cellSize, cellSize);
+	}
+
+	// board coordinates to pixels, the origin is the lower left corner of the board
+	private int x(int col) {
+		return margin + col * cellSize;
+	}
+
+	private int y(int row) {
+		return margin + (State.ROWS + PREVIEW_ROWS - row) * cellSize;
+	}
+
+	private final int cellSize;
+	private final int margin;
+	private final BufferedImage image;
+	private final Graphics2D graphics;
+}
@@ -29,6 +29,68 @@ public class ImmutableStateTest {
 		assertStateEquals(mutableState, immutableState);
 	}
 
+	@Test
+	public void rowSharingTest() {
+		Random random = new Random(1);
+		PlayerSkeleton.ImmutableState parent = new PlayerSkeleton.ImmutableState(new State());
+		for(int turn = 0; turn < 1000; ++turn) {
+			int[][] snapshot = new int[State.ROWS][];
+			for(int row = 0; row < State.ROWS; ++row) {
+				snapshot[row] = parent.getField()[row].clone();
+			}
+
+			//Children, including the ones clearing lines, must not change the parent
+			PlayerSkeleton.MoveResult next = null;
+			for(int piece = 0; piece < State.N_PIECES; ++piece) {
+				for(int[] move: State.legalMoves[piece]) {
+					PlayerSkeleton.MoveResult result = parent.move(piece, move[0], move[1]);
+					assertArrayEquals(snapshot, parent.getField());
+					if(!result.hasLost() && (next == null || random.nextInt(4) == 0)) {
+						next = result;
+					}
+				}
+			}
+
+			if(next == null) {
+				parent = new PlayerSkeleton.ImmutableState(new State());
+			}
+			else {
+				parent = next.getState();
+			}
+		}
+	}
+
+	@Test
+	public void occupancyOnlyTest() {
+		Random random = new Random(2);
+		PlayerSkeleton.ImmutableState stamped = new PlayerSkeleton.ImmutableState(mutableState);
+		PlayerSkeleton.ImmutableState occupancy = PlayerSkeleton.ImmutableState.occupancyOf(mutableState);
+		assertFalse(occupancy.hasTurnStamps());
+		boolean hasLost = false;
+		while(!hasLost) {
+			int piece = random.nextInt(State.N_PIECES);
+			int[] move = State.legalMoves[piece][random.nextInt(State.legalMoves[piece].length)];
+			PlayerSkeleton.MoveResult stampedResult = stamped.move(piece, move[0], move[1]);
+			PlayerSkeleton.MoveResult occupancyResult = occupancy.move(piece, move[0], move[1]);
+			assertEquals(stampedResult.getRowsCleared(), occupancyResult.getRowsCleared());
+			assertEquals(stampedResult.hasLost(), occupancyResult.hasLost());
+
+			stamped = stampedResult.getState();
+			occupancy = occupancyResult.getState();
+			assertTrue(stamped.hasTurnStamps());
+			assertFalse(occupancy.hasTurnStamps());
+			assertArrayEquals(stamped.getTop(), occupancy.getTop());
+			assertArrayEquals(stamped.getColumns(), occupancy.getColumns());
+			assertEquals(stamped.getFeatures(), occupancy.getFeatures());
+			for(int row = 0; row < State.ROWS; ++row) {
+				for(int col = 0; col < State.COLS; ++col) {
+					assertEquals(stamped.getField()[row][col] != 0, occupancy.getField()[row][col] != 0);
+				}
+			}
+			hasLost = stampedResult.hasLost();
+		}
+	}
+
 	@Test
 	public void consistencyTest() {
 		Random random = new Random();
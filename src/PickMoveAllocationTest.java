@@ -0,0 +1,182 @@
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+public class PickMoveAllocationTest {
+	private static final int NUM_BOARDS = 2000;
+	private static final int WARM_UP_ROUNDS = 20;
+	//Games decided together by pickMoves
+	private static final int BATCH_SIZE = 8;
+	//Bytes allowed for getThreadAllocatedBytes itself, a single candidate board is more
+	private static final long ALLOCATION_SLACK = 64;
+
+	@Before
+	public void setUp() {
+		forkJoinPool = new ForkJoinPool(1);
+		//One registered game on a pool of one, so pickMove never fans out
+		parallelismPolicy = new PlayerSkeleton.ParallelismPolicy(1);
+		parallelismPolicy.gameStarted();
+
+		//Boards from one game, with the piece that was played on each
+		Random random = new Random(11);
+		PlayerSkeleton player = new PlayerSkeleton(forkJoinPool);
+		PlayerSkeleton.ImmutableState state = new PlayerSkeleton.ImmutableState();
+		for(int i = 0; i < NUM_BOARDS; ++i) {
+			int piece = random.nextInt(State.N_PIECES);
+			boards[i] = state;
+			pieces[i] = piece;
+
+			int move = player.pickMove(state, piece, State.legalMoves[piece]);
+			PlayerSkeleton.MoveResult result = state.move(PlayerSkeleton.PieceTable.placement(piece, move));
+			state = result.hasLost() ? new PlayerSkeleton.ImmutableState() : result.getState();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		forkJoinPool.shutdown();
+	}
+
+	@Test
+	public void sameMovesTest() {
+		PlayerSkeleton forkJoinPlayer = new PlayerSkeleton(forkJoinPool);
+		PlayerSkeleton sequentialPlayer = newSequentialPlayer();
+		for(int i = 0; i < NUM_BOARDS; ++i) {
+			int[][] legalMoves = State.legalMoves[pieces[i]];
+			assertEquals(referenceMove(i), forkJoinPlayer.pickMove(boards[i], pieces[i], legalMoves));
+			assertEquals(referenceMove(i), sequentialPlayer.pickMove(boards[i], pieces[i], legalMoves));
+		}
+	}
+
+	@Test
+	public void zeroAllocationTest() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		PlayerSkeleton player = newSequentialPlayer();
+		int[] moves = new int[NUM_BOARDS];
+		for(int round = 0; round < WARM_UP_ROUNDS; ++round) {
+			pickMoves(player, moves);
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(threadId);
+		pickMoves(player, moves);
+		long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+		assertTrue("pickMove allocated " + allocated + " bytes over " + NUM_BOARDS + " decisions",
+				allocated < ALLOCATION_SLACK);
+	}
+
+	@Test
+	public void defaultPlayerZeroAllocationTest() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		//No policy, as in PlayerSkeleton.main, so decisions may fan out
+		PlayerSkeleton player = new PlayerSkeleton(forkJoinPool);
+		int[] moves = new int[NUM_BOARDS];
+		for(int round = 0; round < WARM_UP_ROUNDS; ++round) {
+			pickMoves(player, moves);
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(threadId);
+		pickMoves(player, moves);
+		long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+		assertTrue("pickMove allocated " + allocated + " bytes over " + NUM_BOARDS + " decisions",
+				allocated < ALLOCATION_SLACK);
+	}
+
+	@Test
+	public void batchedSameMovesTest() {
+		PlayerSkeleton sequentialPlayer = newSequentialPlayer();
+		int[] moves = new int[NUM_BOARDS];
+		pickMovesInBatches(sequentialPlayer, moves);
+		for(int i = 0; i < NUM_BOARDS; ++i) {
+			assertEquals(referenceMove(i), moves[i]);
+		}
+	}
+
+	@Test
+	public void batchedZeroAllocationTest() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		PlayerSkeleton player = newSequentialPlayer();
+		int[] moves = new int[NUM_BOARDS];
+		for(int round = 0; round < WARM_UP_ROUNDS; ++round) {
+			pickMovesInBatches(player, moves);
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(threadId);
+		pickMovesInBatches(player, moves);
+		long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+		assertTrue("pickMoves allocated " + allocated + " bytes over " + NUM_BOARDS + " decisions",
+				allocated < ALLOCATION_SLACK);
+	}
+
+	//First best move that does not lose, scored one candidate board at a time
+	private int referenceMove(int board) {
+		PlayerSkeleton.WeightedSumEvaluator evaluator =
+				new PlayerSkeleton.WeightedSumEvaluator(PlayerSkeleton.EVALUATORS, PlayerSkeleton.DEFAULT_WEIGHTS);
+		int piece = pieces[board];
+		float maxScore = -Float.MAX_VALUE;
+		int best = 0;
+		for(int move = 0; move < State.legalMoves[piece].length; ++move) {
+			PlayerSkeleton.MoveResult result = boards[board].move(PlayerSkeleton.PieceTable.placement(piece, move));
+			if(result.hasLost()) {
+				continue;
+			}
+			float score = evaluator.map(result);
+			if(score > maxScore) {
+				maxScore = score;
+				best = move;
+			}
+		}
+		return best;
+	}
+
+	private PlayerSkeleton newSequentialPlayer() {
+		PlayerSkeleton player = new PlayerSkeleton(forkJoinPool);
+		player.setParallelismPolicy(parallelismPolicy);
+		return player;
+	}
+
+	private void pickMoves(PlayerSkeleton player, int[] moves) {
+		for(int i = 0; i < NUM_BOARDS; ++i) {
+			moves[i] = player.pickMove(boards[i], pieces[i], State.legalMoves[pieces[i]]);
+		}
+	}
+
+	//Decide the boards BATCH_SIZE at a time, as lockstep games do
+	private void pickMovesInBatches(PlayerSkeleton player, int[] moves) {
+		for(int first = 0; first < NUM_BOARDS; first += BATCH_SIZE) {
+			System.arraycopy(boards, first, batchBoards, 0, BATCH_SIZE);
+			System.arraycopy(pieces, first, batchPieces, 0, BATCH_SIZE);
+			player.pickMoves(batchBoards, batchPieces, batchMoves);
+			System.arraycopy(batchMoves, 0, moves, first, BATCH_SIZE);
+		}
+	}
+
+	private ForkJoinPool forkJoinPool;
+	private PlayerSkeleton.ParallelismPolicy parallelismPolicy;
+	private final PlayerSkeleton.ImmutableState[] boards = new PlayerSkeleton.ImmutableState[NUM_BOARDS];
+	private final int[] pieces = new int[NUM_BOARDS];
+	private final PlayerSkeleton.ImmutableState[] batchBoards = new PlayerSkeleton.ImmutableState[BATCH_SIZE];
+	private final int[] batchPieces = new int[BATCH_SIZE];
+	private final int[] batchMoves = new int[BATCH_SIZE];
+}
@@ -0,0 +1,88 @@
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PickMovesParallelismTest {
+	private static final int PARALLELISM = 4;
+	//34 legal moves, enough for a chunk per worker
+	private static final int PIECE = 2;
+
+	@Before
+	public void setUp() {
+		forkJoinPool = new ForkJoinPool(PARALLELISM);
+	}
+
+	@After
+	public void tearDown() {
+		forkJoinPool.shutdown();
+	}
+
+	@Test
+	public void lastGameFansOutTest() {
+		//The only game left of a run, every other core is idle
+		PlayerSkeleton.ParallelismPolicy parallelismPolicy = new PlayerSkeleton.ParallelismPolicy(PARALLELISM);
+		parallelismPolicy.gameStarted();
+
+		Set<Thread> threads = pickMove(parallelismPolicy, true);
+		assertTrue("Candidates ran on " + threads, threads.size() > 1);
+		assertFalse(threads.contains(Thread.currentThread()));
+	}
+
+	@Test
+	public void busyGamesStayOnTheirThreadTest() {
+		PlayerSkeleton.ParallelismPolicy parallelismPolicy = new PlayerSkeleton.ParallelismPolicy(PARALLELISM);
+		for(int i = 0; i < PARALLELISM; ++i) {
+			parallelismPolicy.gameStarted();
+		}
+
+		assertEquals(Collections.singleton(Thread.currentThread()), pickMove(parallelismPolicy, true));
+	}
+
+	@Test
+	public void singleDecisionFansOutTest() {
+		//No policy, as in PlayerSkeleton.main
+		Set<Thread> threads = pickMove(null, false);
+		assertTrue("Candidates ran on " + threads, threads.size() > 1);
+		assertFalse(threads.contains(Thread.currentThread()));
+	}
+
+	//Pick a move for one game, through pickMoves or pickMove, and return the threads that scored its candidates
+	private Set<Thread> pickMove(PlayerSkeleton.ParallelismPolicy parallelismPolicy, boolean batched) {
+		final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+		PlayerSkeleton.MoveEvaluator threadRecorder = new PlayerSkeleton.MoveEvaluator() {
+			@Override
+			public Float map(PlayerSkeleton.MoveResult result) {
+				threads.add(Thread.currentThread());
+				//Long enough for idle workers to steal the other chunks
+				try {
+					Thread.sleep(1);
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return (float)result.getRowsCleared();
+			}
+		};
+		PlayerSkeleton player = new PlayerSkeleton(forkJoinPool,
+				new PlayerSkeleton.WeightedSumEvaluator(new PlayerSkeleton.MoveEvaluator[] { threadRecorder }, new float[] { 1.0f }));
+		player.setParallelismPolicy(parallelismPolicy);
+
+		if(batched) {
+			int[] moves = new int[1];
+			player.pickMoves(new PlayerSkeleton.ImmutableState[] { new PlayerSkeleton.ImmutableState() }, new int[] { PIECE }, moves);
+		}
+		else {
+			player.pickMove(new PlayerSkeleton.ImmutableState(), PIECE, State.legalMoves[PIECE]);
+		}
+		return threads;
+	}
+
+	private ForkJoinPool forkJoinPool;
+}
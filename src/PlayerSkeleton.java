@@ -1,8 +1,37 @@
+import java.awt.Color;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 public class PlayerSkeleton {
 	private static final float roughnessWeight = 0.9f;
@@ -19,18 +48,15 @@ public class PlayerSkeleton {
 		ForkJoinPool executorService = new ForkJoinPool();
 		PlayerSkeleton p = new PlayerSkeleton(executorService);
 
-		new TFrame(s);
+		TFrame frame = new TFrame(s);
+		AsyncRenderer renderer = new AsyncRenderer(frame.label);
+		renderer.start();
 		try {
 			while (!s.hasLost()) {
 				s.makeMove(p.pickMove(s, s.legalMoves()));
-				s.draw();
-				s.drawNext(0, 0);
-				try {
-					Thread.sleep(1);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
+				renderer.publish(s);
 			}
+			renderer.finish(s);
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
@@ -38,6 +64,7 @@ public class PlayerSkeleton {
 		}
 
 		System.out.println("You have completed " + s.getRowsCleared() + " rows.");
+		System.out.println(LATENCY.report());
 	}
 
 	public static final MoveEvaluator[] EVALUATORS;
@@ -69,36 +96,204 @@ public class PlayerSkeleton {
 		EVALUATORS = evaluators.toArray(new MoveEvaluator[evaluators.size()]);
 	}
 
+	public static final float[] DEFAULT_WEIGHTS = new float[]
+			{ 363.5092f, 194.57817f, 188.69507f, 943.2513f, 396.27356f, 512.3429f, 604.4724f };
+	//{ 587.5112f, 438.03345f, 474.9645f,	939.3418f, 408.60773f, 815.7669f };
+
 	public PlayerSkeleton(ForkJoinPool forkJoinPool) {
-		this.mapReduce = new MapReduce(forkJoinPool);
-		float[] weights = new float[]
-				{ 363.5092f, 194.57817f, 188.69507f, 943.2513f, 396.27356f, 512.3429f, 604.4724f };
-		//{ 587.5112f, 438.03345f, 474.9645f,	939.3418f, 408.60773f, 815.7669f };
-		this.evaluator = new WeightedSumEvaluator(EVALUATORS, weights);
+		this(forkJoinPool, DEFAULT_WEIGHTS);
 	}
 
 	public PlayerSkeleton(ForkJoinPool forkJoinPool, float[] weights) {
+		this(forkJoinPool, new WeightedSumEvaluator(EVALUATORS, weights));
+	}
+
+	public PlayerSkeleton(ForkJoinPool forkJoinPool, MoveEvaluator evaluator) {
 		this.mapReduce = new MapReduce(forkJoinPool);
-		this.evaluator = new WeightedSumEvaluator(EVALUATORS, weights);
+		this.evaluator = evaluator;
+		if (evaluator instanceof WeightedSumEvaluator) {
+			this.batchEvaluator = new BatchEvaluator((WeightedSumEvaluator) evaluator, mapReduce,
+					forkJoinPool.getParallelism());
+		}
 	}
 
 	public int pickMove(State s, int[][] legalMoves) {
 		int nextPiece = s.getNextPiece();
-		ImmutableState currentState = new ImmutableState(s);
+		ImmutableState currentState = ImmutableState.occupancyOf(s);
 		return pickMove(currentState, nextPiece, legalMoves);
 	}
 
+	/**
+	 * Pick the best move that does not lose. A WeightedSumEvaluator picks
+	 * from State.legalMoves through a BatchEvaluator batch of one game, split
+	 * over the pool when the ParallelismPolicy says to fan out, which
+	 * allocates nothing on the calling thread once warmed up, apart from
+	 * DecisionCache entries on misses. Other evaluators and move lists go
+	 * through a task, a candidate board and a result per candidate.
+	 * 
+	 * @return index of the move in legalMoves
+	 */
 	public int pickMove(ImmutableState currentState, int nextPiece, int[][] legalMoves) {
+		long startTime = System.nanoTime();
+		long cacheKey = decisionCache != null ? DecisionCache.keyOf(currentState, nextPiece) : DecisionCache.NO_KEY;
+		if (cacheKey != DecisionCache.NO_KEY) {
+			DecisionCache.Entry cached = decisionCache.get(cacheKey);
+			if (cached != null) {
+				LATENCY.record(DecisionLatency.TOTAL, System.nanoTime() - startTime);
+				METRICS.decisions.increment();
+				return cached.getMove();
+			}
+		}
+
+		// the batch numbers moves as in State.legalMoves
+		if (batchEvaluator != null && legalMoves == State.legalMoves[nextPiece]) {
+			boolean fanOut = parallelismPolicy == null || parallelismPolicy.shouldFanOut();
+			singleBoard[0] = currentState;
+			singlePiece[0] = nextPiece;
+			batchEvaluator.pickMoves(singleBoard, singlePiece, 1, singleMove, singleScore, fanOut);
+			singleBoard[0] = null;
+			// games that cannot survive have no score to cache
+			if (cacheKey != DecisionCache.NO_KEY && singleScore[0] != -Float.MAX_VALUE) {
+				decisionCache.put(cacheKey, singleMove[0], singleScore[0]);
+			}
+			return singleMove[0];
+		}
+
+		// candidates never need turn stamps
+		currentState = currentState.withoutTurnStamps();
 		possibleMoves.clear();
 		for (int moveIndex = 0; moveIndex < legalMoves.length; ++moveIndex) {
 			int orientation = legalMoves[moveIndex][0];
 			int position = legalMoves[moveIndex][1];
+			// losing moves are never worth evaluating
+			if (currentState.isLosing(PieceTable.placement(nextPiece, orientation, position))) {
+				continue;
+			}
 			possibleMoves.add(new Move(currentState, moveIndex, nextPiece,
 					orientation, position));
 		}
+		METRICS.candidatesGenerated.add(legalMoves.length);
+		METRICS.candidatesPruned.add(legalMoves.length - possibleMoves.size());
+		long generatedTime = System.nanoTime();
+
+		// every move loses and leaves the same board, take the first
+		EvaluationResult best;
+		if (possibleMoves.isEmpty()) {
+			best = null;
+		}
+		else if (parallelismPolicy != null && !parallelismPolicy.shouldFanOut()) {
+			best = evaluateSequentially();
+		}
+		else {
+			best = mapReduce.mapReduce(EVAL_MOVE_FUNC, PICK_MOVE_FUNC, possibleMoves);
+		}
+		int move = best != null ? best.getMove() : possibleMoves.isEmpty() ? 0 : -1;
+		long endTime = System.nanoTime();
+		if (best != null && cacheKey != DecisionCache.NO_KEY) {
+			decisionCache.put(cacheKey, best.getMove(), best.getScore());
+		}
+
+		LATENCY.record(DecisionLatency.GENERATION, generatedTime - startTime);
+		LATENCY.record(DecisionLatency.MAP_REDUCE, endTime - generatedTime);
+		LATENCY.record(DecisionLatency.TOTAL, endTime - startTime);
+		METRICS.decisions.increment();
+		if (Metrics.sample()) {
+			METRICS.sampledDecisions.increment();
+			METRICS.decisionNanos.add(endTime - startTime);
+		}
+
+		return move;
+	}
+
+	/**
+	 * Pick moves for many independent games at once. Candidates of all games
+	 * are simulated and then scored feature by feature over contiguous
+	 * arrays, split over the pool when the ParallelismPolicy says to fan out
+	 * and on the calling thread otherwise. Gives the same moves as calling
+	 * pickMove for each game.
+	 * 
+	 * @param boards current board of each game
+	 * @param pieces piece to play in each game
+	 * @param outMoves receives the index of the chosen move in State.legalMoves[piece]
+	 */
+	public void pickMoves(ImmutableState[] boards, int[] pieces, int[] outMoves) {
+		if (batchEvaluator == null) {
+			for (int game = 0; game < boards.length; ++game) {
+				outMoves[game] = pickMove(boards[game], pieces[game], State.legalMoves[pieces[game]]);
+			}
+			return;
+		}
+
+		boolean fanOut = parallelismPolicy == null || parallelismPolicy.shouldFanOut();
+		if (decisionCache == null) {
+			batchEvaluator.pickMoves(boards, pieces, boards.length, outMoves, null, fanOut);
+			return;
+		}
+
+		// only games that miss the cache go through the batch
+		if (missGames == null || missGames.length < boards.length) {
+			missGames = new int[boards.length];
+			missKeys = new long[boards.length];
+			missBoards = new ImmutableState[boards.length];
+			missPieces = new int[boards.length];
+			missMoves = new int[boards.length];
+			missScores = new float[boards.length];
+		}
+		int numMisses = 0;
+		for (int game = 0; game < boards.length; ++game) {
+			long key = DecisionCache.keyOf(boards[game], pieces[game]);
+			DecisionCache.Entry cached = key != DecisionCache.NO_KEY ? decisionCache.get(key) : null;
+			if (cached != null) {
+				outMoves[game] = cached.getMove();
+				METRICS.decisions.increment();
+				continue;
+			}
+			missGames[numMisses] = game;
+			missKeys[numMisses] = key;
+			missBoards[numMisses] = boards[game];
+			missPieces[numMisses] = pieces[game];
+			++numMisses;
+		}
+		if (numMisses == 0) {
+			return;
+		}
+
+		batchEvaluator.pickMoves(missBoards, missPieces, numMisses, missMoves, missScores, fanOut);
+		for (int i = 0; i < numMisses; ++i) {
+			outMoves[missGames[i]] = missMoves[i];
+			// games that cannot survive have no score to cache
+			if (missKeys[i] != DecisionCache.NO_KEY && missScores[i] != -Float.MAX_VALUE) {
+				decisionCache.put(missKeys[i], missMoves[i], missScores[i]);
+			}
+		}
+		Arrays.fill(missBoards, 0, numMisses, null);
+	}
+
+	/**
+	 * Let a policy decide whether candidates are evaluated in parallel
+	 * @param parallelismPolicy policy shared by every player of the run, or null to always fan out
+	 */
+	public void setParallelismPolicy(ParallelismPolicy parallelismPolicy) {
+		this.parallelismPolicy = parallelismPolicy;
+	}
+
+	/**
+	 * Reuse decisions on hole-free boards through a cache. The evaluator
+	 * must score a candidate from its board alone, which holds for
+	 * WeightedSumEvaluator but not for RolloutEvaluator.
+	 * @param decisionCache cache shared with other players of the same evaluator, or null
+	 */
+	public void setDecisionCache(DecisionCache decisionCache) {
+		this.decisionCache = decisionCache;
+	}
 
-		return mapReduce.mapReduce(EVAL_MOVE_FUNC, PICK_MOVE_FUNC,
-				possibleMoves);
+	// Same evaluations and reduction as the fork/join path, on this thread
+	private EvaluationResult evaluateSequentially() {
+		evaluations.clear();
+		for (Move move : possibleMoves) {
+			evaluations.add(EVAL_MOVE_FUNC.map(move));
+		}
+		return PICK_MOVE_FUNC.reduce(evaluations);
 	}
 
 	public static void printState(int[][] field) {
@@ -112,61 +307,869 @@ public class PlayerSkeleton {
 	}
 
 	private MoveEvaluator evaluator;
+	// null if the evaluator is not a WeightedSumEvaluator
+	private BatchEvaluator batchEvaluator;
+	// a pickMove call as a batch of one game
+	private final ImmutableState[] singleBoard = new ImmutableState[1];
+	private final int[] singlePiece = new int[1];
+	private final int[] singleMove = new int[1];
+	private final float[] singleScore = new float[1];
 	private MapReduce mapReduce;
 	private ArrayList<Move> possibleMoves = new ArrayList<Move>();
+	private DecisionCache decisionCache;
+	private ParallelismPolicy parallelismPolicy;
+	private ArrayList<EvaluationResult> evaluations = new ArrayList<EvaluationResult>();
+	// games of a pickMoves call that missed the cache
+	private int[] missGames;
+	private long[] missKeys;
+	private ImmutableState[] missBoards;
+	private int[] missPieces;
+	private int[] missMoves;
+	private float[] missScores;
 
 	private final MapFunc<Move, EvaluationResult> EVAL_MOVE_FUNC = new MapFunc<Move, EvaluationResult>() {
 		@Override
 		public EvaluationResult map(Move move) {
 			ImmutableState state = move.getState();
+			METRICS.candidatesEvaluated.increment();
+
+			// Only sampled candidates are timed
+			boolean sampled = Metrics.sample();
+			long startTime = sampled ? System.nanoTime() : 0L;
 			MoveResult moveResult = state.move(move.getPiece(),
 					move.getOrientation(), move.getPosition());
+			long moveTime = sampled ? System.nanoTime() : 0L;
 			float score = evaluator.map(moveResult);
+
+			if (sampled) {
+				long endTime = System.nanoTime();
+				LATENCY.record(DecisionLatency.SIMULATION, moveTime - startTime);
+				LATENCY.record(DecisionLatency.EVALUATION, endTime - moveTime);
+				METRICS.sampledCandidates.increment();
+				METRICS.moveNanos.add(moveTime - startTime);
+				METRICS.evaluationNanos.add(endTime - moveTime);
+			}
+
 			return new EvaluationResult(move.getIndex(), score);
 		}
 	};
 
-	private static final ReduceFunc<EvaluationResult, Integer> PICK_MOVE_FUNC = new ReduceFunc<EvaluationResult, Integer>() {
-		public Integer reduce(Iterable<EvaluationResult> results) {
+	private static final ReduceFunc<EvaluationResult, EvaluationResult> PICK_MOVE_FUNC = new ReduceFunc<EvaluationResult, EvaluationResult>() {
+		public EvaluationResult reduce(Iterable<EvaluationResult> results) {
+			long startTime = System.nanoTime();
 			float maxScore = -Float.MAX_VALUE;
-			int move = -1;
+			EvaluationResult best = null;
 
 			for (EvaluationResult result : results) {
 				float score = result.getScore();
 				if (score > maxScore) {
 					maxScore = score;
-					move = result.getMove();
+					best = result;
 				}
 			}
 
-			return move;
+			LATENCY.record(DecisionLatency.REDUCTION, System.nanoTime() - startTime);
+			return best;
+		}
+	};
+
+	// Nested classes because we are only allowed to use one file
+	/**
+	 * An evaluator which uses a weighted sum of features as score
+	 */
+	public static class WeightedSumEvaluator implements MoveEvaluator {
+		public WeightedSumEvaluator(MoveEvaluator[] evaluators, float[] weights) {
+			this.evaluators = evaluators;
+			this.weights = weights;
+			this.featureTimers = METRICS.featureTimers(evaluators);
+		}
+
+		@Override
+		public Float map(MoveResult moveResult) {
+			if (Metrics.sample()) {
+				return timedMap(moveResult);
+			}
+
+			float sum = 0.0f;
+
+			for (int i = 0; i < evaluators.length; ++i) {
+				float score = evaluators[i].map(moveResult);
+				sum += score * weights[i];
+			}
+
+			return sum;
+		}
+
+		private float timedMap(MoveResult moveResult) {
+			float sum = 0.0f;
+
+			for (int i = 0; i < evaluators.length; ++i) {
+				long startTime = System.nanoTime();
+				float score = evaluators[i].map(moveResult);
+				featureTimers[i].record(System.nanoTime() - startTime);
+				sum += score * weights[i];
+			}
+
+			return sum;
+		}
+
+		private final MoveEvaluator[] evaluators;
+		private final float[] weights;
+		private final Metrics.FeatureTimer[] featureTimers;
+	}
+
+	/**
+	 * Scores a candidate by playing it out: numRollouts games of up to depth
+	 * random pieces, each placed greedily by a base policy. The score is the
+	 * rows cleared by the candidate plus the average over the rollouts of
+	 * rows cleared and pieces survived. Rollouts run in parallel, each with
+	 * its own generator. Rollout i of every candidate of a turn gets the same
+	 * pieces so that candidates are compared on equal terms. Short rollouts
+	 * often cannot tell candidates apart, those ties go to the candidate the
+	 * policy scores best.
+	 */
+	public static class RolloutEvaluator implements MoveEvaluator {
+		public RolloutEvaluator(ForkJoinPool forkJoinPool, MoveEvaluator policy, int numRollouts, int depth) {
+			if (numRollouts < 1 || depth < 1) {
+				throw new IllegalArgumentException("Rollout count and depth must be positive");
+			}
+
+			this.mapReduce = new MapReduce(forkJoinPool);
+			this.policy = policy;
+			this.numRollouts = numRollouts;
+			this.depth = depth;
+			this.salt = ThreadLocalRandom.current().nextLong();
+		}
+
+		public int getNumRollouts() {
+			return numRollouts;
+		}
+
+		public int getDepth() {
+			return depth;
+		}
+
+		/**
+		 * Run the rollouts on the calling thread when the policy says games
+		 * already use every core
+		 * @param parallelismPolicy policy shared by every player of the run, or null to always fan out
+		 */
+		public void setParallelismPolicy(ParallelismPolicy parallelismPolicy) {
+			this.parallelismPolicy = parallelismPolicy;
+		}
+
+		@Override
+		public Float map(MoveResult result) {
+			if (result.hasLost()) {
+				return 0.0f;
+			}
+
+			ImmutableState state = result.getState();
+			long turnSeed = salt + (long) state.getTurn() * numRollouts;
+			ArrayList<Rollout> rollouts = new ArrayList<Rollout>(numRollouts);
+			for (int i = 0; i < numRollouts; ++i) {
+				rollouts.add(new Rollout(state, turnSeed + i));
+			}
+
+			int rolloutTotal;
+			if (parallelismPolicy != null && !parallelismPolicy.shouldFanOut()) {
+				rolloutTotal = 0;
+				for (Rollout rollout : rollouts) {
+					rolloutTotal += rollout(rollout.state, rollout.seed);
+				}
+			}
+			else {
+				rolloutTotal = mapReduce.mapReduce(ROLLOUT_FUNC, SUM_FUNC, rollouts);
+			}
+			int total = numRollouts * result.getRowsCleared() + rolloutTotal;
+			// in (0, 1), so it never overrides a difference in the rollouts
+			double tieBreak = Math.atan(policy.map(result) / TIE_BREAK_SCALE) / Math.PI + 0.5;
+			return (float) ((total + tieBreak) / numRollouts);
+		}
+
+		// Rows cleared plus pieces placed before losing or reaching depth
+		private int rollout(ImmutableState state, long seed) {
+			SplittableRandom random = new SplittableRandom(seed);
+			int rowsCleared = 0;
+			for (int ply = 0; ply < depth; ++ply) {
+				int piece = random.nextInt(State.N_PIECES);
+				int firstPlacement = PieceTable.placement(piece, 0);
+				int lastPlacement = firstPlacement + PieceTable.numPlacements(piece);
+
+				MoveResult best = null;
+				float bestScore = -Float.MAX_VALUE;
+				for (int placement = firstPlacement; placement < lastPlacement; ++placement) {
+					if (state.isLosing(placement)) {
+						continue;
+					}
+
+					MoveResult candidate = state.move(placement);
+					float score = policy.map(candidate);
+					if (score > bestScore) {
+						bestScore = score;
+						best = candidate;
+					}
+				}
+
+				if (best == null) {
+					return rowsCleared + ply;
+				}
+				rowsCleared += best.getRowsCleared();
+				state = best.getState();
+			}
+
+			return rowsCleared + depth;
+		}
+
+		// Policy scores of candidates typically differ by hundreds
+		private static final double TIE_BREAK_SCALE = 5000.0;
+
+		private final MapFunc<Rollout, Integer> ROLLOUT_FUNC = new MapFunc<Rollout, Integer>() {
+			@Override
+			public Integer map(Rollout rollout) {
+				return rollout(rollout.state, rollout.seed);
+			}
+		};
+
+		private static final ReduceFunc<Integer, Integer> SUM_FUNC = new ReduceFunc<Integer, Integer>() {
+			@Override
+			public Integer reduce(Iterable<Integer> values) {
+				int sum = 0;
+				for (int value : values) {
+					sum += value;
+				}
+				return sum;
+			}
+		};
+
+		private static class Rollout {
+			public Rollout(ImmutableState state, long seed) {
+				this.state = state;
+				this.seed = seed;
+			}
+
+			private final ImmutableState state;
+			private final long seed;
+		}
+
+		private final MapReduce mapReduce;
+		private final MoveEvaluator policy;
+		private final int numRollouts;
+		private final int depth;
+		// Varies the rollout pieces between evaluators
+		private final long salt;
+		private ParallelismPolicy parallelismPolicy;
+	}
+
+	/**
+	 * Picks moves for many games with a WeightedSumEvaluator. The candidates
+	 * of every game go into one CandidateBatch and are scored there, so once
+	 * the batch has grown to size nothing is allocated on the calling thread.
+	 * Fanning out splits the batch into one chunk per worker of the pool,
+	 * which lets a single remaining game use every core. An instance must
+	 * only be used by one thread at a time.
+	 */
+	public static class BatchEvaluator {
+		// Fewest candidates worth a task of their own
+		private static final int MIN_CHUNK = 8;
+
+		/**
+		 * @param mapReduce runs chunks of candidates when fanning out
+		 * @param parallelism number of workers behind mapReduce
+		 */
+		public BatchEvaluator(WeightedSumEvaluator evaluator, MapReduce mapReduce, int parallelism) {
+			this.evaluator = evaluator;
+			this.mapReduce = mapReduce;
+			this.chunks = new Chunk[parallelism];
+			for (int i = 0; i < parallelism; ++i) {
+				chunks[i] = new Chunk();
+			}
+		}
+
+		/**
+		 * Pick moves for the first numGames games. The whole call counts as
+		 * one decision in LATENCY, every game of the batch waits for all of it.
+		 * 
+		 * @param outScores receives the score of each chosen move,
+		 *        -Float.MAX_VALUE if every move loses, may be null
+		 * @param fanOut whether to evaluate the candidates on the pool
+		 */
+		public void pickMoves(ImmutableState[] boards, int[] pieces, int numGames, int[] outMoves, float[] outScores,
+				boolean fanOut) {
+			long startTime = System.nanoTime();
+			int numCandidates = 0;
+			for (int game = 0; game < numGames; ++game) {
+				numCandidates += State.legalMoves[pieces[game]].length;
+			}
+			batch.clear(numCandidates);
+			for (int game = 0; game < numGames; ++game) {
+				int piece = pieces[game];
+				int[] top = boards[game].getTop();
+				int[] columns = boards[game].getColumns();
+				for (int moveIndex = 0; moveIndex < State.legalMoves[piece].length; ++moveIndex) {
+					batch.add(top, columns, 0, PieceTable.placement(piece, moveIndex));
+				}
+			}
+			METRICS.candidatesGenerated.add(numCandidates);
+			METRICS.candidatesEvaluated.add(numCandidates);
+			METRICS.decisions.add(numGames);
+			long generatedTime = System.nanoTime();
+
+			int numChunks = fanOut ? Math.min(chunks.length, numCandidates / MIN_CHUNK) : 1;
+			if (numChunks > 1) {
+				chunkInputs.clear();
+				for (int i = 0; i < numChunks; ++i) {
+					chunks[i].from = (int) ((long) numCandidates * i / numChunks);
+					chunks[i].to = (int) ((long) numCandidates * (i + 1) / numChunks);
+					chunkInputs.add(chunks[i]);
+				}
+				chunkOutputs.clear();
+				mapReduce.map(EVALUATE_CHUNK, chunkInputs, chunkOutputs);
+			}
+			else {
+				batch.evaluate(evaluator, 0, numCandidates);
+			}
+			long evaluatedTime = System.nanoTime();
+
+			// Pick the first best candidate of each game, losing moves only
+			// when there is nothing else, like pickMove
+			int candidate = 0;
+			for (int game = 0; game < numGames; ++game) {
+				int numMoves = State.legalMoves[pieces[game]].length;
+				float maxScore = -Float.MAX_VALUE;
+				int move = 0;
+				for (int moveIndex = 0; moveIndex < numMoves; ++moveIndex) {
+					if (!batch.isLost(candidate + moveIndex) && batch.getScore(candidate + moveIndex) > maxScore) {
+						maxScore = batch.getScore(candidate + moveIndex);
+						move = moveIndex;
+					}
+				}
+				outMoves[game] = move;
+				if (outScores != null) {
+					outScores[game] = maxScore;
+				}
+				candidate += numMoves;
+			}
+			long endTime = System.nanoTime();
+
+			LATENCY.record(DecisionLatency.GENERATION, generatedTime - startTime);
+			LATENCY.record(DecisionLatency.MAP_REDUCE, evaluatedTime - generatedTime);
+			LATENCY.record(DecisionLatency.REDUCTION, endTime - evaluatedTime);
+			LATENCY.record(DecisionLatency.TOTAL, endTime - startTime);
+			if (Metrics.sample()) {
+				METRICS.sampledDecisions.increment();
+				METRICS.decisionNanos.add(endTime - startTime);
+			}
+		}
+
+		private final MapFunc<Chunk, Chunk> EVALUATE_CHUNK = new MapFunc<Chunk, Chunk>() {
+			@Override
+			public Chunk map(Chunk chunk) {
+				batch.evaluate(evaluator, chunk.from, chunk.to);
+				return chunk;
+			}
+		};
+
+		private final WeightedSumEvaluator evaluator;
+		private final MapReduce mapReduce;
+		private final CandidateBatch batch = new CandidateBatch();
+		private final Chunk[] chunks;
+		private final ArrayList<Chunk> chunkInputs = new ArrayList<Chunk>();
+		private final ArrayList<Chunk> chunkOutputs = new ArrayList<Chunk>();
+
+		// A range of candidates evaluated by one task
+		private static class Chunk {
+			private int from;
+			private int to;
+		}
+	}
+
+	/**
+	 * Boards left by candidate placements, laid out as struct-of-arrays:
+	 * the height and occupancy of column c of candidate i are at
+	 * c * capacity + i, so every feature is a loop over contiguous memory.
+	 * Candidates are simulated with PieceTable.place and scored with the
+	 * BatchFeature kernels of their features, in place. Candidates are added
+	 * by one thread, disjoint ranges may then be evaluated by several.
+	 */
+	public static class CandidateBatch {
+		/**
+		 * Remove every candidate
+		 * @param expected number of candidates about to be added
+		 */
+		public void clear(int expected) {
+			Arrays.fill(parentTops, 0, size, null);
+			Arrays.fill(parentColumns, 0, size, null);
+			size = 0;
+			if (expected > capacity) {
+				grow(expected);
+			}
+		}
+
+		/**
+		 * Add the board left by a placement. A losing placement leaves its
+		 * parent board unchanged, as in ImmutableState.move.
+		 * 
+		 * @param top heights of the parent board, must not change until the batch is evaluated
+		 * @param columns occupancy of the parent board, likewise
+		 * @param rowsCleared rows already cleared on the way to the parent, NumRowsCleared counts them too
+		 * @return index of the candidate
+		 */
+		public int add(int[] top, int[] columns, int rowsCleared, int placement) {
+			if (size == capacity) {
+				grow(Math.max(2 * capacity, 64));
+			}
+
+			parentTops[size] = top;
+			parentColumns[size] = columns;
+			baseRows[size] = rowsCleared;
+			placements[size] = placement;
+			return size++;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Simulate candidates from (inclusive) to to (exclusive) and score them
+		 * with the same sum, in the same order, as WeightedSumEvaluator.map
+		 */
+		public void evaluate(WeightedSumEvaluator evaluator, int from, int to) {
+			// Only sampled ranges are timed
+			boolean sampled = Metrics.sample();
+			long startTime = sampled ? System.nanoTime() : 0L;
+			simulate(from, to);
+			long simulatedTime = sampled ? System.nanoTime() : 0L;
+
+			Arrays.fill(scores, from, to, 0.0f);
+			for (int feature = 0; feature < evaluator.evaluators.length; ++feature) {
+				MoveEvaluator featureEvaluator = evaluator.evaluators[feature];
+				if (featureEvaluator instanceof BatchFeature) {
+					((BatchFeature) featureEvaluator).map(this, from, to, featureScores);
+				}
+				else {
+					for (int i = from; i < to; ++i) {
+						featureScores[i] = featureEvaluator.map(result(i));
+					}
+				}
+
+				float weight = evaluator.weights[feature];
+				for (int i = from; i < to; ++i) {
+					scores[i] += featureScores[i] * weight;
+				}
+			}
+
+			if (sampled && to > from) {
+				long endTime = System.nanoTime();
+				int count = to - from;
+				LATENCY.record(DecisionLatency.SIMULATION, (simulatedTime - startTime) / count);
+				LATENCY.record(DecisionLatency.EVALUATION, (endTime - simulatedTime) / count);
+				METRICS.sampledCandidates.add(count);
+				METRICS.moveNanos.add(simulatedTime - startTime);
+				METRICS.evaluationNanos.add(endTime - simulatedTime);
+			}
+		}
+
+		public float getScore(int candidate) {
+			return scores[candidate];
+		}
+
+		public boolean isLost(int candidate) {
+			return lost[candidate];
+		}
+
+		/**
+		 * Copy the board of a candidate out of the batch
+		 */
+		public void copyBoard(int candidate, int[] top, int[] columns) {
+			for (int col = 0; col < State.COLS; ++col) {
+				top[col] = heights[col * capacity + candidate];
+				columns[col] = this.columns[col * capacity + candidate];
+			}
+		}
+
+		/**
+		 * The board of a candidate as a MoveResult, for evaluators that are not
+		 * a BatchFeature. Allocates, and the turn of the state is not kept.
+		 */
+		public MoveResult result(int candidate) {
+			int[] top = new int[State.COLS];
+			int[] columns = new int[State.COLS];
+			copyBoard(candidate, top, columns);
+			ImmutableState state = new ImmutableState(null, top, columns, 0);
+			return new MoveResult(state, lost[candidate], rowsCleared[candidate] - baseRows[candidate]);
+		}
+
+		// Feature kernels, each fills a scratch array for the range and returns it
+
+		public int[] roughness(int from, int to) {
+			HEIGHT_FEATURES.roughness(heights, capacity, from, to, counts);
+			return counts;
+		}
+
+		public int[] maxHeights(int from, int to) {
+			HEIGHT_FEATURES.maxHeight(heights, capacity, from, to, counts);
+			return counts;
+		}
+
+		public int[] pitDepths(int from, int to) {
+			HEIGHT_FEATURES.pitDepths(heights, capacity, from, to, counts);
+			return counts;
+		}
+
+		public float[] heightDeviations(int from, int to) {
+			HEIGHT_FEATURES.heightDeviation(heights, capacity, from, to, deviations);
+			return deviations;
+		}
+
+		public int[] holes(int from, int to) {
+			for (int i = from; i < to; ++i) {
+				counts[i] = FeatureState.holes(columns, heights, capacity, i);
+			}
+			return counts;
+		}
+
+		/**
+		 * @return rows cleared by each candidate plus the rows given to add
+		 */
+		public int[] getRowsCleared() {
+			return rowsCleared;
+		}
+
+		public boolean[] getLost() {
+			return lost;
+		}
+
+		private void simulate(int from, int to) {
+			for (int i = from; i < to; ++i) {
+				int[] top = parentTops[i];
+				int[] parentColumns = this.parentColumns[i];
+				for (int col = 0; col < State.COLS; ++col) {
+					heights[col * capacity + i] = top[col];
+					columns[col * capacity + i] = parentColumns[col];
+				}
+
+				int placement = placements[i];
+				int landing = PieceTable.landingHeight(top, placement);
+				lost[i] = landing + PieceTable.height[placement] >= State.ROWS;
+				rowsCleared[i] = baseRows[i];
+				if (!lost[i]) {
+					int fullRows = PieceTable.place(columns, heights, capacity, i, placement, landing);
+					rowsCleared[i] += Integer.bitCount(fullRows);
+				}
+			}
+		}
+
+		// Boards are only written by evaluate, so they need no copying
+		private void grow(int newCapacity) {
+			capacity = newCapacity;
+			parentTops = Arrays.copyOf(parentTops, capacity);
+			parentColumns = Arrays.copyOf(parentColumns, capacity);
+			baseRows = Arrays.copyOf(baseRows, capacity);
+			placements = Arrays.copyOf(placements, capacity);
+			heights = new int[State.COLS * capacity];
+			columns = new int[State.COLS * capacity];
+			rowsCleared = new int[capacity];
+			lost = new boolean[capacity];
+			counts = new int[capacity];
+			deviations = new float[capacity];
+			featureScores = new float[capacity];
+			scores = new float[capacity];
+		}
+
+		private int size = 0;
+		private int capacity = 0;
+		private int[][] parentTops = new int[0][];
+		private int[][] parentColumns = new int[0][];
+		private int[] baseRows = new int[0];
+		private int[] placements = new int[0];
+		// heights[column * capacity + candidate], likewise columns
+		private int[] heights;
+		private int[] columns;
+		private int[] rowsCleared;
+		private boolean[] lost;
+		private int[] counts;
+		private float[] deviations;
+		private float[] featureScores;
+		private float[] scores;
+	}
+
+	/**
+	 * Chooses between parallel games and parallel moves. Threads register
+	 * while they play, games played in lockstep by one thread count once.
+	 * While fewer games than the parallelism of the pool are running, as at
+	 * the tail of a generation, players fan the candidates of a move out to
+	 * the pool. Otherwise the games already keep every core busy and moves
+	 * are evaluated on the calling thread.
+	 */
+	public static class ParallelismPolicy {
+		public ParallelismPolicy(int parallelism) {
+			if (parallelism < 1) {
+				throw new IllegalArgumentException("Parallelism must be positive");
+			}
+
+			this.parallelism = parallelism;
+		}
+
+		public void gameStarted() {
+			activeGames.incrementAndGet();
+		}
+
+		public void gameFinished() {
+			activeGames.decrementAndGet();
+		}
+
+		public boolean shouldFanOut() {
+			return activeGames.get() < parallelism;
+		}
+
+		public int getActiveGames() {
+			return activeGames.get();
+		}
+
+		public int getParallelism() {
+			return parallelism;
+		}
+
+		private final int parallelism;
+		private final AtomicInteger activeGames = new AtomicInteger();
+	}
+
+	/**
+	 * Decisions of one evaluator, keyed by the column heights of a hole-free
+	 * board and the piece. Without holes the heights describe the whole
+	 * board, so a cached move is the move pickMove would pick. The cache is
+	 * split into sets of WAYS entries, a key can only live in its set and is
+	 * evicted with the CLOCK algorithm within that set. Entries are
+	 * immutable and swapped in with compare-and-set, so lookups and inserts
+	 * never lock. Inserts that race with another insert into the same slot
+	 * are dropped.
+	 */
+	public static class DecisionCache {
+		public static final long NO_KEY = -1L;
+		public static final int WAYS = 4;
+		// Estimated bytes per entry: the object and the reference to it
+		public static final int ENTRY_BYTES = 40;
+		private static final int HEIGHT_BITS = 5;
+
+		/**
+		 * @param budgetBytes approximate memory for the entries, rounded down to a power of two sets
+		 */
+		public DecisionCache(long budgetBytes) {
+			long numSets = Math.max(1, budgetBytes / ENTRY_BYTES / WAYS);
+			int sets = Integer.highestOneBit((int) Math.min(numSets, 1 << 24));
+			this.setMask = sets - 1;
+			this.entries = new AtomicReferenceArray<Entry>(sets * WAYS);
+			this.hands = new byte[sets];
+		}
+
+		/**
+		 * @return the key of a decision, or NO_KEY if the board has holes
+		 */
+		public static long keyOf(ImmutableState state, int piece) {
+			if (state.getFeatures().getHoles() != 0) {
+				return NO_KEY;
+			}
+
+			int[] top = state.getTop();
+			long key = piece;
+			for (int col = 0; col < State.COLS; ++col) {
+				key = (key << HEIGHT_BITS) | top[col];
+			}
+			return key;
+		}
+
+		/**
+		 * @return the cached decision or null
+		 */
+		public Entry get(long key) {
+			int base = setOf(key) * WAYS;
+			for (int way = 0; way < WAYS; ++way) {
+				Entry entry = entries.get(base + way);
+				if (entry != null && entry.key == key) {
+					if (!entry.referenced) {
+						entry.referenced = true;
+					}
+					hits.increment();
+					METRICS.cacheHits.increment();
+					return entry;
+				}
+			}
+
+			misses.increment();
+			METRICS.cacheMisses.increment();
+			return null;
+		}
+
+		public void put(long key, int move, float score) {
+			int set = setOf(key);
+			int base = set * WAYS;
+			Entry entry = new Entry(key, move, score);
+			for (int way = 0; way < WAYS; ++way) {
+				Entry old = entries.get(base + way);
+				if (old == null || old.key == key) {
+					entries.compareAndSet(base + way, old, entry);
+					return;
+				}
+			}
+
+			// CLOCK: give referenced entries a second chance
+			int hand = hands[set];
+			for (int step = 0; step < 2 * WAYS; ++step) {
+				int way = (hand + step) & (WAYS - 1);
+				Entry old = entries.get(base + way);
+				if (old != null && old.referenced) {
+					old.referenced = false;
+					continue;
+				}
+
+				if (entries.compareAndSet(base + way, old, entry)) {
+					evictions.increment();
+				}
+				hands[set] = (byte) ((way + 1) & (WAYS - 1));
+				return;
+			}
+		}
+
+		public int getCapacity() {
+			return entries.length();
+		}
+
+		public long getHits() {
+			return hits.sum();
+		}
+
+		public long getMisses() {
+			return misses.sum();
+		}
+
+		public long getEvictions() {
+			return evictions.sum();
+		}
+
+		/**
+		 * @return hits over lookups, 0 before the first lookup
+		 */
+		public double getHitRate() {
+			long hits = this.hits.sum();
+			long lookups = hits + misses.sum();
+			return lookups == 0 ? 0.0 : (double) hits / lookups;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("decision cache: %d entries, hit rate %.1f%% (%d hits, %d misses), %d evictions",
+					getCapacity(), getHitRate() * 100.0, getHits(), getMisses(), getEvictions());
+		}
+
+		private int setOf(long key) {
+			key *= 0x9E3779B97F4A7C15L;
+			return (int) (key >>> 32) & setMask;
+		}
+
+		public static class Entry {
+			public Entry(long key, int move, float score) {
+				this.key = key;
+				this.move = move;
+				this.score = score;
+			}
+
+			public int getMove() {
+				return move;
+			}
+
+			public float getScore() {
+				return score;
+			}
+
+			private final long key;
+			private final int move;
+			private final float score;
+			// set on hits, cleared as the CLOCK hand passes, races only cost accuracy
+			private boolean referenced;
+		}
+
+		private final int setMask;
+		private final AtomicReferenceArray<Entry> entries;
+		// next way to consider for eviction in each set, races only cost accuracy
+		private final byte[] hands;
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder misses = new LongAdder();
+		private final LongAdder evictions = new LongAdder();
+	}
+
+	/**
+	 * Features computed from column heights only, for many candidates at once.
+	 * heights[column * stride + candidate], results are written to out for
+	 * candidates from (inclusive) to to (exclusive).
+	 */
+	public interface HeightFeatures {
+		/** Sum of absolute differences between neighbouring columns */
+		void roughness(int[] heights, int stride, int from, int to, int[] out);
+
+		/** Height of the highest column */
+		void maxHeight(int[] heights, int stride, int from, int to, int[] out);
+
+		/** Sum of pit depths deeper than 2, as in PitDepths */
+		void pitDepths(int[] heights, int stride, int from, int to, int[] out);
+
+		/** Sum of absolute differences between each column and the mean height */
+		void heightDeviation(int[] heights, int stride, int from, int to, float[] out);
+	}
+
+	/**
+	 * Used by CandidateBatch. Vectorized when VectorFeatures (vector/, built
+	 * separately by the Makefile) is on the class path and the JVM runs with
+	 * --add-modules jdk.incubator.vector.
+	 */
+	public static final HeightFeatures HEIGHT_FEATURES = loadHeightFeatures();
+
+	private static HeightFeatures loadHeightFeatures() {
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				return (HeightFeatures) Class.forName("VectorFeatures").getDeclaredConstructor().newInstance();
+			}
+			catch (ReflectiveOperationException | LinkageError e) {
+				System.err.println("Vector features unavailable: " + e);
+			}
 		}
-	};
 
-	// Nested classes because we are only allowed to use one file
+		return new ScalarHeightFeatures();
+	}
+
 	/**
-	 * An evaluator which uses a weighted sum of features as score
+	 * The FeatureState kernels for each candidate, also handles the tail of
+	 * VectorFeatures
 	 */
-	public static class WeightedSumEvaluator implements MoveEvaluator {
-		public WeightedSumEvaluator(MoveEvaluator[] evaluators, float[] weights) {
-			this.evaluators = evaluators;
-			this.weights = weights;
+	public static class ScalarHeightFeatures implements HeightFeatures {
+		@Override
+		public void roughness(int[] heights, int stride, int from, int to, int[] out) {
+			for (int i = from; i < to; ++i) {
+				out[i] = FeatureState.roughness(heights, stride, i);
+			}
 		}
 
 		@Override
-		public Float map(MoveResult moveResult) {
-			float sum = 0.0f;
-
-			for (int i = 0; i < evaluators.length; ++i) {
-				float score = evaluators[i].map(moveResult);
-				sum += score * weights[i];
+		public void maxHeight(int[] heights, int stride, int from, int to, int[] out) {
+			for (int i = from; i < to; ++i) {
+				out[i] = FeatureState.maxHeight(heights, stride, i);
 			}
+		}
 
-			return sum;
+		@Override
+		public void pitDepths(int[] heights, int stride, int from, int to, int[] out) {
+			for (int i = from; i < to; ++i) {
+				out[i] = FeatureState.pitDepths(heights, stride, i);
+			}
 		}
 
-		private final MoveEvaluator[] evaluators;
-		private final float[] weights;
+		@Override
+		public void heightDeviation(int[] heights, int stride, int from, int to, float[] out) {
+			for (int i = from; i < to; ++i) {
+				out[i] = FeatureState.heightDeviation(heights, stride, i);
+			}
+		}
 	}
 
 	/**
@@ -247,137 +1250,142 @@ public class PlayerSkeleton {
 	}
 	
 	// Mean height difference, the average of the difference between the height of each column and the mean height of the state. 
-	public static class MeanHeightDifference implements MoveEvaluator {
+	public static class MeanHeightDifference implements BatchFeature {
 		@Override
 		public Float map(MoveResult result) {
-			int[] top = result.getState().getTop();
-
-			int sum = 0;
-			for (int height : top) {
-				sum += height;
-			}
-
-			float meanHeight = (float) sum / top.length;
+			return score(FeatureState.heightDeviation(result.getState().getTop(), 1, 0));
+		}
 
-			float avgDiff = 0;
-			for (int height : top) {
-				avgDiff += Math.abs(meanHeight - height);
+		@Override
+		public void map(CandidateBatch batch, int from, int to, float[] out) {
+			float[] deviations = batch.heightDeviations(from, to);
+			for (int i = from; i < to; ++i) {
+				out[i] = score(deviations[i]);
 			}
+		}
 
-			return -(avgDiff / (float) top.length) * meanHeightDifferenceWeight;
+		private static float score(float deviation) {
+			return -(deviation / (float) State.COLS) * meanHeightDifferenceWeight;
 		}
 	}
 
 	//The maximum column height of the state.
-	public static class MaxColumnHeight implements MoveEvaluator {
+	public static class MaxColumnHeight implements BatchFeature {
 		@Override
 		public Float map(MoveResult result) {
-			int[] top = result.getState().getTop();
+			return score(result.getState().getFeatures().getMaxHeight());
+		}
 
-			int maxHeight = Integer.MIN_VALUE;
-			for (int column = 0; column < top.length; ++column) {
-				int height = top[column];
-				if (height > maxHeight) {
-					maxHeight = height;
-				}
+		@Override
+		public void map(CandidateBatch batch, int from, int to, float[] out) {
+			int[] maxHeights = batch.maxHeights(from, to);
+			for (int i = from; i < to; ++i) {
+				out[i] = score(maxHeights[i]);
 			}
+		}
 
+		private static float score(int maxHeight) {
 			return -(float) maxHeight * maxColumnHeightWeight;
 		}
 	}
 
 	// Number of rows cleared.
-	public static class NumRowsCleared implements MoveEvaluator {
+	public static class NumRowsCleared implements BatchFeature {
 		@Override
 		public Float map(MoveResult moveResult) {
-			return (float) moveResult.getRowsCleared() * numRowsClearedWeight;
+			return score(moveResult.getRowsCleared());
+		}
+
+		@Override
+		public void map(CandidateBatch batch, int from, int to, float[] out) {
+			int[] rowsCleared = batch.getRowsCleared();
+			for (int i = from; i < to; ++i) {
+				out[i] = score(rowsCleared[i]);
+			}
+		}
+
+		private static float score(int rowsCleared) {
+			return (float) rowsCleared * numRowsClearedWeight;
 		}
 	}
 
 	// Whether the move results in a loss or not.
-	public static class HasLost implements MoveEvaluator {
+	public static class HasLost implements BatchFeature {
 		@Override
 		public Float map(MoveResult result) {
-			return result.hasLost() ? -10.0f : 10.0f;
+			return score(result.hasLost());
+		}
+
+		@Override
+		public void map(CandidateBatch batch, int from, int to, float[] out) {
+			boolean[] lost = batch.getLost();
+			for (int i = from; i < to; ++i) {
+				out[i] = score(lost[i]);
+			}
+		}
+
+		private static float score(boolean lost) {
+			return lost ? -10.0f : 10.0f;
 		}
 	}
 
 	// Number of holes, a hole is an empty block with a non-empty block above it.
-	public static class NumFaults implements MoveEvaluator {
+	public static class NumFaults implements BatchFeature {
 		@Override
 		public Float map(MoveResult result) {
-			int[][] field = result.getState().getField();
-			int[] top = result.getState().getTop();
-			int numFaults = 0;
+			return score(result.getState().getFeatures().getHoles());
+		}
 
-			for (int x = 0; x < State.COLS; ++x) {
-				for (int y = top[x] - 1; y >= 0; --y) {
-					if (field[y][x] == 0) {
-						++numFaults;
-					}
-				}
+		@Override
+		public void map(CandidateBatch batch, int from, int to, float[] out) {
+			int[] holes = batch.holes(from, to);
+			for (int i = from; i < to; ++i) {
+				out[i] = score(holes[i]);
 			}
+		}
 
+		private static float score(int numFaults) {
 			return -(float) numFaults * numFaultsWeight;
 		}
 	}
 
 	// Depth of pits, a pit is a column with adjacent columns higher by at least two blocks and the pit depth 
 	// is defined as the difference between the height of the pit column and the shortest adjacent column.	
-	public static class PitDepths implements MoveEvaluator {
+	public static class PitDepths implements BatchFeature {
 		@Override
 		public Float map(MoveResult result) {
-			int[] top = result.getState().getTop();
-			int sumOfPitDepths = 0;
-
-			int pitHeight;
-			int leftOfPitHeight;
-			int rightOfPitHeight;
-
-			// pit depth of first column
-			pitHeight = top[0];
-			rightOfPitHeight = top[1];
-			int diff = rightOfPitHeight - pitHeight;
-			if (diff > 2) {
-				sumOfPitDepths += diff;
-			}
-
-			for (int col = 0; col < State.COLS - 2; col++) {
-				leftOfPitHeight = top[col];
-				pitHeight = top[col + 1];
-				rightOfPitHeight = top[col + 2];
-
-				int leftDiff = leftOfPitHeight - pitHeight;
-				int rightDiff = rightOfPitHeight - pitHeight;
-				int minDiff = leftDiff < rightDiff ? leftDiff : rightDiff;
-
-				if (minDiff > 2) {
-					sumOfPitDepths += minDiff;
-				}
-			}
+			return score(result.getState().getFeatures().getPitDepths());
+		}
 
-			// pit depth of last column
-			pitHeight = top[State.COLS - 1];
-			leftOfPitHeight = top[State.COLS - 2];
-			diff = leftOfPitHeight - pitHeight;
-			if (diff > 2) {
-				sumOfPitDepths += diff;
+		@Override
+		public void map(CandidateBatch batch, int from, int to, float[] out) {
+			int[] pitDepths = batch.pitDepths(from, to);
+			for (int i = from; i < to; ++i) {
+				out[i] = score(pitDepths[i]);
 			}
+		}
 
+		private static float score(int sumOfPitDepths) {
 			return -(float) sumOfPitDepths * pitDepthsWeight;
-
 		}
 	}
 
 	// Sum of height difference between all pairs of adjacent columns.
-	public static class Roughness implements MoveEvaluator {
+	public static class Roughness implements BatchFeature {
 		@Override
 		public Float map(MoveResult result) {
-			int[] top = result.getState().getTop();
-			int roughness = 0;
-			for (int i = 0; i < top.length - 1; ++i) {
-				roughness += Math.abs(top[i] - top[i + 1]);
+			return score(result.getState().getFeatures().getRoughness());
+		}
+
+		@Override
+		public void map(CandidateBatch batch, int from, int to, float[] out) {
+			int[] roughness = batch.roughness(from, to);
+			for (int i = from; i < to; ++i) {
+				out[i] = score(roughness[i]);
 			}
+		}
+
+		private static float score(int roughness) {
 			return -(float) roughness * roughnessWeight;
 		}
 	}
@@ -399,9 +1407,221 @@ public class PlayerSkeleton {
 		private final int columnB;
 	}
 
+	/**
+	 * Board features carried with an ImmutableState. A placement that clears
+	 * no line only changes the columns under the piece, so the features are
+	 * updated from those columns and their neighbours. Line clears recompute
+	 * everything.
+	 */
+	public static class FeatureState {
+		public static final FeatureState EMPTY = new FeatureState(0, 0, 0, 0, 0);
+
+		/**
+		 * Compute all features from scratch
+		 */
+		public static FeatureState compute(int[][] field, int[] top) {
+			return compute(ImmutableState.columnsOf(field), top);
+		}
+
+		/**
+		 * Compute all features from scratch
+		 * 
+		 * @param columns occupancy bitmask of each column, see ImmutableState.getColumns
+		 * @param top column heights
+		 */
+		public static FeatureState compute(int[] columns, int[] top) {
+			int heightSum = 0;
+			for (int col = 0; col < State.COLS; ++col) {
+				heightSum += top[col];
+			}
+
+			return new FeatureState(roughness(top, 1, 0), holes(columns, top, 1, 0), pitDepths(top, 1, 0),
+					heightSum, maxHeight(top, 1, 0));
+		}
+
+		/**
+		 * Features after a piece landed without clearing any line
+		 * 
+		 * @param oldTop column heights before the placement
+		 * @param newTop column heights after the placement
+		 * @param placement placement id of the piece, see PieceTable
+		 * @param height row the piece landed on
+		 */
+		public FeatureState place(int[] oldTop, int[] newTop, int placement, int height) {
+			int slot = PieceTable.slot[placement];
+			int width = PieceTable.width[placement];
+			int skirt = placement * PieceTable.MAX_WIDTH - slot;
+			int roughness = this.roughness;
+			int firstPair = Math.max(slot - 1, 0);
+			int lastPair = Math.min(slot + width, State.COLS - 1);
+			for (int col = firstPair; col < lastPair; ++col) {
+				roughness += Math.abs(newTop[col] - newTop[col + 1]) - Math.abs(oldTop[col] - oldTop[col + 1]);
+			}
+
+			int pitDepths = this.pitDepths;
+			int lastPit = Math.min(slot + width, State.COLS - 1);
+			for (int col = Math.max(slot - 1, 0); col <= lastPit; ++col) {
+				pitDepths += pitDepth(newTop, 1, 0, col) - pitDepth(oldTop, 1, 0, col);
+			}
+
+			// The piece covers the cells between the old top and its own bottom
+			int holes = this.holes;
+			int heightSum = this.heightSum;
+			int maxHeight = this.maxHeight;
+			for (int col = slot; col < slot + width; ++col) {
+				holes += height + PieceTable.bottom[skirt + col] - oldTop[col];
+				heightSum += newTop[col] - oldTop[col];
+				maxHeight = Math.max(maxHeight, newTop[col]);
+			}
+
+			return new FeatureState(roughness, holes, pitDepths, heightSum, maxHeight);
+		}
+
+		/** Sum of absolute differences between neighbouring columns */
+		public int getRoughness() {
+			return roughness;
+		}
+
+		/** Empty cells below the top of their column */
+		public int getHoles() {
+			return holes;
+		}
+
+		/** Sum of pit depths deeper than 2 */
+		public int getPitDepths() {
+			return pitDepths;
+		}
+
+		public int getHeightSum() {
+			return heightSum;
+		}
+
+		public int getMaxHeight() {
+			return maxHeight;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof FeatureState)) {
+				return false;
+			}
+
+			FeatureState features = (FeatureState) other;
+			return roughness == features.roughness
+					&& holes == features.holes
+					&& pitDepths == features.pitDepths
+					&& heightSum == features.heightSum
+					&& maxHeight == features.maxHeight;
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(new int[] { roughness, holes, pitDepths, heightSum, maxHeight });
+		}
+
+		@Override
+		public String toString() {
+			return "roughness=" + roughness + " holes=" + holes + " pitDepths=" + pitDepths
+					+ " heightSum=" + heightSum + " maxHeight=" + maxHeight;
+		}
+
+		private FeatureState(int roughness, int holes, int pitDepths, int heightSum, int maxHeight) {
+			this.roughness = roughness;
+			this.holes = holes;
+			this.pitDepths = pitDepths;
+			this.heightSum = heightSum;
+			this.maxHeight = maxHeight;
+		}
+
+		// The features of one board, used by ImmutableState and CandidateBatch alike.
+		// Column c of the board is at c * stride + index.
+
+		/** Sum of absolute differences between neighbouring columns */
+		public static int roughness(int[] heights, int stride, int index) {
+			int roughness = 0;
+			for (int col = 0; col < State.COLS - 1; ++col) {
+				roughness += Math.abs(heights[col * stride + index] - heights[(col + 1) * stride + index]);
+			}
+			return roughness;
+		}
+
+		/** Height of the highest column */
+		public static int maxHeight(int[] heights, int stride, int index) {
+			int maxHeight = 0;
+			for (int col = 0; col < State.COLS; ++col) {
+				maxHeight = Math.max(maxHeight, heights[col * stride + index]);
+			}
+			return maxHeight;
+		}
+
+		/** Empty cells below the top of their column */
+		public static int holes(int[] columns, int[] heights, int stride, int index) {
+			int holes = 0;
+			for (int col = 0; col < State.COLS; ++col) {
+				int at = col * stride + index;
+				holes += Integer.bitCount(~columns[at] & ((1 << heights[at]) - 1));
+			}
+			return holes;
+		}
+
+		/** Sum of pit depths deeper than 2 */
+		public static int pitDepths(int[] heights, int stride, int index) {
+			int pitDepths = 0;
+			for (int col = 0; col < State.COLS; ++col) {
+				pitDepths += pitDepth(heights, stride, index, col);
+			}
+			return pitDepths;
+		}
+
+		/** Sum of absolute differences between each column and the mean height */
+		public static float heightDeviation(int[] heights, int stride, int index) {
+			int sum = 0;
+			for (int col = 0; col < State.COLS; ++col) {
+				sum += heights[col * stride + index];
+			}
+			float mean = (float) sum / State.COLS;
+			float deviation = 0.0f;
+			for (int col = 0; col < State.COLS; ++col) {
+				deviation += Math.abs(mean - heights[col * stride + index]);
+			}
+			return deviation;
+		}
+
+		// A pit is a column whose neighbours are higher by more than 2, its depth
+		// is the difference to the lower neighbour
+		private static int pitDepth(int[] heights, int stride, int index, int col) {
+			int height = heights[col * stride + index];
+			int depth;
+			if (col == 0) {
+				depth = heights[stride + index] - height;
+			}
+			else if (col == State.COLS - 1) {
+				depth = heights[(State.COLS - 2) * stride + index] - height;
+			}
+			else {
+				int leftDiff = heights[(col - 1) * stride + index] - height;
+				int rightDiff = heights[(col + 1) * stride + index] - height;
+				depth = leftDiff < rightDiff ? leftDiff : rightDiff;
+			}
+
+			return depth > 2 ? depth : 0;
+		}
+
+		private final int roughness;
+		private final int holes;
+		private final int pitDepths;
+		private final int heightSum;
+		private final int maxHeight;
+	}
+
 	/**
 	 * A state that is more useful then the provided one. It is immutable and
-	 * suitable for parallel processing
+	 * suitable for parallel processing. Occupancy is kept as one bitmask per
+	 * column. The turn stamped field like State's is optional: states made
+	 * from a State or a field keep it, occupancy-only states used for search
+	 * skip it and build a field on demand. Rows that a move does not change
+	 * are shared between the parent and the child state, so rows must never
+	 * be modified once a state is built.
 	 */
 	public static class ImmutableState {
 		/**
@@ -412,6 +1632,8 @@ public class PlayerSkeleton {
 			int[] srcTop = state.getTop();
 			top = Arrays.copyOf(srcTop, srcTop.length);
 			turn = state.getTurnNumber();
+			columns = columnsOf(field);
+			features = FeatureState.compute(columns, top);
 		}
 
 		/**
@@ -422,22 +1644,78 @@ public class PlayerSkeleton {
 		 * @param turn
 		 */
 		public ImmutableState(int[][] field, int[] top, int turn) {
+			this(field, top, columnsOf(field), turn);
+		}
+
+		private ImmutableState(int[][] field, int[] top, int[] columns, int turn) {
+			this(field, top, columns, turn, FeatureState.compute(columns, top));
+		}
+
+		private ImmutableState(int[][] field, int[] top, int[] columns, int turn, FeatureState features) {
 			this.field = field;
 			this.top = top;
+			this.columns = columns;
 			this.turn = turn;
+			this.features = features;
 		}
 
 		/**
-		 * Construct an empty state
+		 * Construct an empty occupancy-only state
 		 */
 		public ImmutableState() {
-			field = new int[State.ROWS][State.COLS];
+			field = null;
 			top = new int[State.COLS];
+			columns = new int[State.COLS];
 			turn = 0;
+			features = FeatureState.EMPTY;
 		}
 
+		/**
+		 * Construct an occupancy-only state identical to the built-in state
+		 */
+		public static ImmutableState occupancyOf(State state) {
+			int[] columns = columnsOf(state.getField());
+			int[] top = Arrays.copyOf(state.getTop(), COLS);
+			return new ImmutableState(null, top, columns, state.getTurnNumber());
+		}
+
+		/**
+		 * @return this state without turn stamps, sharing everything else
+		 */
+		public ImmutableState withoutTurnStamps() {
+			if (field == null) {
+				return this;
+			}
+
+			return new ImmutableState(null, top, columns, turn, features);
+		}
+
+		public boolean hasTurnStamps() {
+			return field != null;
+		}
+
+		/**
+		 * @return the field, rows may be shared with other states so do not
+		 *         modify. In occupancy-only states filled cells are 1 and the
+		 *         field is built on the first call.
+		 */
 		public int[][] getField() {
-			return field;
+			if (field != null) {
+				return field;
+			}
+
+			int[][] occupancyField = this.occupancyField;
+			if (occupancyField == null) {
+				occupancyField = new int[ROWS][COLS];
+				for (int c = 0; c < COLS; ++c) {
+					for (int r = 0; r < top[c]; ++r) {
+						occupancyField[r][c] = (columns[c] >>> r) & 1;
+					}
+				}
+				this.occupancyField = occupancyField;
+			}
+
+			return occupancyField;
 		}
 
 		public int[] getTop() {
@@ -448,6 +1726,18 @@ public class PlayerSkeleton {
 			return turn;
 		}
 
+		/**
+		 * Column-major occupancy, bit r of columns[c] is set if row r of
+		 * column c is filled. Do not modify.
+		 */
+		public int[] getColumns() {
+			return columns;
+		}
+
+		public FeatureState getFeatures() {
+			return features;
+		}
+
 		/**
 		 * Make a move
 		 * 
@@ -457,163 +1747,343 @@ public class PlayerSkeleton {
 		 * @return result of the move
 		 */
 		public MoveResult move(int piece, int orient, int slot) {
-			int[][] field = copyField(this.field);
-			int[] top = Arrays.copyOf(this.top, this.top.length);
+			return move(PieceTable.placement(piece, orient, slot));
+		}
+
+		/**
+		 * Make a move
+		 * 
+		 * @param placement placement id, see PieceTable
+		 * @return result of the move
+		 */
+		public MoveResult move(int placement) {
 			int turn = this.turn + 1;
+			int pieceHeight = PieceTable.height[placement];
+			int height = PieceTable.landingHeight(this.top, placement);
+
+			// check if game ended before copying anything, the board does not change
+			if (height + pieceHeight >= ROWS) {
+				return new MoveResult(new ImmutableState(field, top, columns, turn, features), true, 0);
+			}
+
+			int[][] field = this.field;
+			int[] top = Arrays.copyOf(this.top, this.top.length);
+			int[] columns = Arrays.copyOf(this.columns, this.columns.length);
+			int fullRows = PieceTable.place(columns, top, 1, 0, placement, height);
+			int rowsCleared = Integer.bitCount(fullRows);
+
+			if (field != null) {
+				// copy only the rows the piece lands in, the others stay shared
+				field = field.clone();
+				for (int r = height; r < height + pieceHeight; r++) {
+					field[r] = field[r].clone();
+				}
+
+				// for each column in the piece - fill in the appropriate blocks
+				int slot = PieceTable.slot[placement];
+				int skirt = placement * PieceTable.MAX_WIDTH;
+				for (int i = 0; i < PieceTable.width[placement]; i++) {
+					// from bottom to top of brick
+					for (int h = height + PieceTable.bottom[skirt + i]; h < height + PieceTable.top[skirt + i]; h++) {
+						field[h][i + slot] = turn;
+					}
+				}
+
+				// remove full rows - starting at the top so lower rows keep their index
+				for (int rows = fullRows; rows != 0; rows &= ~Integer.highestOneBit(rows)) {
+					int r = 31 - Integer.numberOfLeadingZeros(rows);
+					// slide down the rows above, the top row is always empty
+					System.arraycopy(field, r + 1, field, r, ROWS - 1 - r);
+					field[ROWS - 1] = EMPTY_ROW;
+				}
+			}
+
+			FeatureState newFeatures = rowsCleared == 0
+					? features.place(this.top, top, placement, height)
+					: FeatureState.compute(columns, top);
+			return new MoveResult(new ImmutableState(field, top, columns, turn, newFeatures), false, rowsCleared);
+		}
+
+		/**
+		 * @return whether the placement would end the game, without simulating it
+		 */
+		public boolean isLosing(int placement) {
+			return PieceTable.landingHeight(top, placement) + PieceTable.height[placement] >= ROWS;
+		}
+
+		/**
+		 * Pack a field into one occupancy bitmask per column
+		 */
+		public static int[] columnsOf(int[][] field) {
+			int[] columns = new int[COLS];
+			for (int r = 0; r < ROWS; ++r) {
+				for (int c = 0; c < COLS; ++c) {
+					if (field[r][c] != 0) {
+						columns[c] |= 1 << r;
+					}
+				}
+			}
+
+			return columns;
+		}
+
+		private static int[][] copyField(int[][] srcField) {
+			int[][] copy = new int[ROWS][COLS];
+
+			for (int i = 0; i < ROWS; ++i) {
+				for (int j = 0; j < COLS; ++j) {
+					copy[i][j] = srcField[i][j];
+				}
+			}
+
+			return copy;
+		}
+
+		// turn stamps, null in occupancy-only states
+		private final int[][] field;
+		// built by getField in occupancy-only states
+		private volatile int[][] occupancyField;
+		private final int[] top;
+		// bit r of columns[c] is field[r][c] != 0
+		private final int[] columns;
+		private final int turn;
+		private final FeatureState features;
+
+		// static
+		public static final int COLS = 10;
+		public static final int ROWS = 21;
+		public static final int N_PIECES = 7;
+		// shared by every state, never written since moves copy a row before filling it
+		private static final int[] EMPTY_ROW = new int[COLS];
+	}
+
+	/**
+	 * Piece geometry from State flattened into primitive arrays. Every legal
+	 * move of every piece has a placement id: the moves of a piece are
+	 * consecutive ids in State.legalMoves order. Per-column data is stored
+	 * at placement * MAX_WIDTH + column of the piece.
+	 */
+	public static class PieceTable {
+		public static final int MAX_WIDTH = 4;
+		public static final int MAX_ORIENTS = 4;
+		public static final int NUM_PLACEMENTS;
+
+		// first placement id of each piece
+		public static final int[] firstPlacement = new int[State.N_PIECES + 1];
+		// first placement id of each orientation, [piece * MAX_ORIENTS + orient]
+		private static final int[] firstOfOrient = new int[State.N_PIECES * MAX_ORIENTS];
+
+		public static final int[] piece;
+		public static final int[] orient;
+		public static final int[] slot;
+		public static final int[] width;
+		public static final int[] height;
+		// rows covered by the piece relative to its lowest row
+		public static final int[] rowMask;
+		// skirt, lowest filled row of each piece column
+		public static final int[] bottom;
+		// one above the highest filled row of each piece column
+		public static final int[] top;
+		// filled rows of each piece column relative to the lowest row of the piece
+		public static final int[] columnMask;
+
+		/**
+		 * @return placement id of a legal move
+		 */
+		public static int placement(int piece, int orient, int slot) {
+			return firstOfOrient[piece * MAX_ORIENTS + orient] + slot;
+		}
 
-			// height if the first column makes contact
-			int height = top[slot] - pBottom[piece][orient][0];
-			// for each column beyond the first in the piece
-			for (int c = 1; c < pWidth[piece][orient]; c++) {
-				height = Math.max(height, top[slot + c]
-						- pBottom[piece][orient][c]);
+		/**
+		 * @return placement id of State.legalMoves[piece][moveIndex]
+		 */
+		public static int placement(int piece, int moveIndex) {
+			return firstPlacement[piece] + moveIndex;
+		}
+
+		public static int numPlacements(int piece) {
+			return firstPlacement[piece + 1] - firstPlacement[piece];
+		}
+
+		/**
+		 * @return row of the lowest cell of the piece once dropped
+		 */
+		public static int landingHeight(int[] columnHeights, int placement) {
+			int col = slot[placement];
+			int skirt = placement * MAX_WIDTH;
+			int landing = columnHeights[col] - bottom[skirt];
+			for (int i = 1; i < width[placement]; i++) {
+				landing = Math.max(landing, columnHeights[col + i] - bottom[skirt + i]);
 			}
 
-			// check if game ended
-			if (height + pHeight[piece][orient] >= ROWS) {
-				return new MoveResult(field, top, turn, true, 0);
-			}
+			return landing;
+		}
 
-			// for each column in the piece - fill in the appropriate blocks
-			for (int i = 0; i < pWidth[piece][orient]; i++) {
-				// from bottom to top of brick
-				for (int h = height + pBottom[piece][orient][i]; h < height
-						+ pTop[piece][orient][i]; h++) {
-					field[h][i + slot] = turn;
-				}
+		/**
+		 * Drop a piece on a board and clear the rows it fills, as
+		 * ImmutableState.move does, without checking whether the game ends.
+		 * Column c of the board is at c * stride + index of both arrays.
+		 * 
+		 * @param columns occupancy bitmask of each column, see ImmutableState.getColumns
+		 * @param heights column heights
+		 * @param landing row the piece lands on, see landingHeight
+		 * @return bitmask of the rows that were cleared, numbered before clearing
+		 */
+		public static int place(int[] columns, int[] heights, int stride, int index, int placement, int landing) {
+			int first = slot[placement];
+			int skirt = placement * MAX_WIDTH;
+			for (int i = 0; i < width[placement]; i++) {
+				int at = (first + i) * stride + index;
+				columns[at] |= columnMask[skirt + i] << landing;
+				heights[at] = landing + top[skirt + i];
 			}
 
-			// adjust top
-			for (int c = 0; c < pWidth[piece][orient]; c++) {
-				top[slot + c] = height + pTop[piece][orient][c];
+			// only rows the piece landed in can be full
+			int fullRows = rowMask[placement] << landing;
+			for (int c = 0; c < State.COLS; c++) {
+				fullRows &= columns[c * stride + index];
 			}
 
-			int rowsCleared = 0;
-			// check for full rows - starting at the top
-			for (int r = height + pHeight[piece][orient] - 1; r >= height; r--) {
-				// check all columns in the row
-				boolean full = true;
-				for (int c = 0; c < COLS; c++) {
-					if (field[r][c] == 0) {
-						full = false;
-						break;
-					}
-				}
-				// if the row was full - remove it and slide above stuff down
-				if (full) {
-					rowsCleared++;
-					// for each column
-					for (int c = 0; c < COLS; c++) {
-
-						// slide down all bricks
-						for (int i = r; i < top[c]; i++) {
-							field[i][c] = field[i + 1][c];
-						}
-						// lower the top
-						top[c]--;
-						while (top[c] >= 1 && field[top[c] - 1][c] == 0)
-							top[c]--;
-					}
+			// remove full rows - starting at the top so lower rows keep their index
+			for (int rows = fullRows; rows != 0; rows &= ~Integer.highestOneBit(rows)) {
+				int r = 31 - Integer.numberOfLeadingZeros(rows);
+				int below = (1 << r) - 1;
+				for (int c = 0; c < State.COLS; c++) {
+					int at = c * stride + index;
+					columns[at] = (columns[at] & below) | ((columns[at] >>> (r + 1)) << r);
+					heights[at] = 32 - Integer.numberOfLeadingZeros(columns[at]);
 				}
 			}
-
-			return new MoveResult(field, top, turn, false, rowsCleared);
+			return fullRows;
 		}
 
-		private static int[][] copyField(int[][] srcField) {
-			int[][] copy = new int[ROWS][COLS];
-
-			for (int i = 0; i < ROWS; ++i) {
-				for (int j = 0; j < COLS; ++j) {
-					copy[i][j] = srcField[i][j];
-				}
+		static {
+			int numPlacements = 0;
+			for (int p = 0; p < State.N_PIECES; p++) {
+				firstPlacement[p] = numPlacements;
+				numPlacements += State.legalMoves[p].length;
 			}
+			firstPlacement[State.N_PIECES] = numPlacements;
+			NUM_PLACEMENTS = numPlacements;
+
+			piece = new int[NUM_PLACEMENTS];
+			orient = new int[NUM_PLACEMENTS];
+			slot = new int[NUM_PLACEMENTS];
+			width = new int[NUM_PLACEMENTS];
+			height = new int[NUM_PLACEMENTS];
+			rowMask = new int[NUM_PLACEMENTS];
+			bottom = new int[NUM_PLACEMENTS * MAX_WIDTH];
+			top = new int[NUM_PLACEMENTS * MAX_WIDTH];
+			columnMask = new int[NUM_PLACEMENTS * MAX_WIDTH];
+
+			for (int p = 0; p < State.N_PIECES; p++) {
+				for (int moveIndex = 0; moveIndex < State.legalMoves[p].length; moveIndex++) {
+					int id = firstPlacement[p] + moveIndex;
+					int o = State.legalMoves[p][moveIndex][State.ORIENT];
+					int s = State.legalMoves[p][moveIndex][State.SLOT];
+					if (s == 0) {
+						firstOfOrient[p * MAX_ORIENTS + o] = id;
+					}
 
-			return copy;
-		}
-
-		private final int[][] field;
-		private final int[] top;
-		private final int turn;
-
-		// static
-		public static final int COLS = 10;
-		public static final int ROWS = 21;
-		public static final int N_PIECES = 7;
-		// all legal moves - first index is piece type - then a list of 2-length
-		// arrays
-		private static int[][][] legalMoves = new int[N_PIECES][][];
-		// indices for legalMoves
-		private static final int ORIENT = 0;
-		private static final int SLOT = 1;
-		// possible orientations for a given piece type
-		private static final int[] pOrients = { 1, 2, 4, 4, 4, 2, 2 };
-		// the next several arrays define the piece vocabulary in detail
-		// width of the pieces [piece ID][orientation]
-		private static final int[][] pWidth = { { 2 }, { 1, 4 },
-				{ 2, 3, 2, 3 }, { 2, 3, 2, 3 }, { 2, 3, 2, 3 }, { 3, 2 },
-				{ 3, 2 } };
-		// height of the pieces [piece ID][orientation]
-		private static int[][] pHeight = { { 2 }, { 4, 1 }, { 3, 2, 3, 2 },
-				{ 3, 2, 3, 2 }, { 3, 2, 3, 2 }, { 2, 3 }, { 2, 3 } };
-		private static int[][][] pBottom = { { { 0, 0 } },
-				{ { 0 }, { 0, 0, 0, 0 } },
-				{ { 0, 0 }, { 0, 1, 1 }, { 2, 0 }, { 0, 0, 0 } },
-				{ { 0, 0 }, { 0, 0, 0 }, { 0, 2 }, { 1, 1, 0 } },
-				{ { 0, 1 }, { 1, 0, 1 }, { 1, 0 }, { 0, 0, 0 } },
-				{ { 0, 0, 1 }, { 1, 0 } }, { { 1, 0, 0 }, { 0, 1 } } };
-		private static int[][][] pTop = { { { 2, 2 } },
-				{ { 4 }, { 1, 1, 1, 1 } },
-				{ { 3, 1 }, { 2, 2, 2 }, { 3, 3 }, { 1, 1, 2 } },
-				{ { 1, 3 }, { 2, 1, 1 }, { 3, 3 }, { 2, 2, 2 } },
-				{ { 3, 2 }, { 2, 2, 2 }, { 2, 3 }, { 1, 2, 1 } },
-				{ { 1, 2, 2 }, { 3, 2 } }, { { 2, 2, 1 }, { 2, 3 } } };
-
-		// initialize legalMoves
-		static {
-			// for each piece type
-			for (int i = 0; i < N_PIECES; i++) {
-				// figure number of legal moves
-				int n = 0;
-				for (int j = 0; j < pOrients[i]; j++) {
-					// number of locations in this orientation
-					n += COLS + 1 - pWidth[i][j];
-				}
-				// allocate space
-				legalMoves[i] = new int[n][2];
-				// for each orientation
-				n = 0;
-				for (int j = 0; j < pOrients[i]; j++) {
-					// for each slot
-					for (int k = 0; k < COLS + 1 - pWidth[i][j]; k++) {
-						legalMoves[i][n][ORIENT] = j;
-						legalMoves[i][n][SLOT] = k;
-						n++;
+					piece[id] = p;
+					orient[id] = o;
+					slot[id] = s;
+					width[id] = State.getpWidth()[p][o];
+					height[id] = State.getpHeight()[p][o];
+					rowMask[id] = (1 << height[id]) - 1;
+					for (int i = 0; i < width[id]; i++) {
+						bottom[id * MAX_WIDTH + i] = State.getpBottom()[p][o][i];
+						top[id * MAX_WIDTH + i] = State.getpTop()[p][o][i];
+						columnMask[id * MAX_WIDTH + i] = (1 << top[id * MAX_WIDTH + i]) - (1 << bottom[id * MAX_WIDTH + i]);
 					}
 				}
 			}
 		}
 	}
 
+	/**
+	 * Runs map functions in parallel on an executor. A ForkJoinPool gets
+	 * fork/join tasks, meant for CPU-bound work such as evaluating moves.
+	 * Any other executor gets one task per input, meant for whole games that
+	 * may block, see GameExecutors.
+	 */
 	public static class MapReduce {
-		public MapReduce(ForkJoinPool forkJoinPool) {
-			this.forkJoinPool = forkJoinPool;
+		public MapReduce(ExecutorService executor) {
+			this.executor = executor;
+			if (executor instanceof ForkJoinPool) {
+				this.forkJoinPool = (ForkJoinPool) executor;
+				METRICS.register(forkJoinPool);
+			}
+			else {
+				this.forkJoinPool = null;
+			}
 		}
 
 		public <Src, Dst> void map(MapFunc<Src, Dst> mapFunc,
 				Iterable<Src> inputs, Collection<Dst> outputs) {
-			forkJoinPool
-					.invoke(new MapTask<Src, Dst>(mapFunc, inputs, outputs));
+			if (forkJoinPool != null) {
+				forkJoinPool
+						.invoke(new MapTask<Src, Dst>(mapFunc, inputs, outputs));
+				return;
+			}
+
+			ArrayList<Callable<Dst>> calls = new ArrayList<Callable<Dst>>();
+			for (Src input : inputs) {
+				calls.add(new MapCall<Src, Dst>(mapFunc, input));
+			}
+			METRICS.tasksSpawned.add(calls.size());
+
+			try {
+				for (Future<Dst> result : executor.invokeAll(calls)) {
+					outputs.add(result.get());
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			catch (ExecutionException e) {
+				// rethrow like ForkJoinTask.invoke does
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				if (e.getCause() instanceof Error) {
+					throw (Error) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			}
 		}
 
 		public <SrcT, IntT, DstT> DstT mapReduce(MapFunc<SrcT, IntT> mapFunc,
 				ReduceFunc<IntT, DstT> reduceFunc, Iterable<SrcT> inputs) {
+			if (forkJoinPool != null) {
+				return forkJoinPool.invoke(new MapReduceTask<SrcT, IntT, DstT>(
+						mapFunc, reduceFunc, inputs));
+			}
 
-			return forkJoinPool.invoke(new MapReduceTask<SrcT, IntT, DstT>(
-					mapFunc, reduceFunc, inputs));
+			ArrayList<IntT> mapResults = new ArrayList<IntT>();
+			map(mapFunc, inputs, mapResults);
+			return reduceFunc.reduce(mapResults);
 		}
 
+		private final ExecutorService executor;
+		// null if the executor is not a ForkJoinPool
 		private final ForkJoinPool forkJoinPool;
+
+		private static class MapCall<SrcT, DstT> implements Callable<DstT> {
+			public MapCall(MapFunc<SrcT, DstT> mapFunc, SrcT input) {
+				this.mapFunc = mapFunc;
+				this.input = input;
+			}
+
+			@Override
+			public DstT call() {
+				return mapFunc.map(input);
+			}
+
+			private final MapFunc<SrcT, DstT> mapFunc;
+			private final SrcT input;
+		}
 	}
 
 	public static interface MapFunc<SrcT, DstT> {
@@ -638,6 +2108,7 @@ public class PlayerSkeleton {
 			for (SrcT input : inputs) {
 				applyTasks.add(new ApplyTask(input));
 			}
+			METRICS.tasksSpawned.add(applyTasks.size());
 			invokeAll(applyTasks);
 
 			for (ForkJoinTask<DstT> applyTask : applyTasks) {
@@ -728,12 +2199,450 @@ public class PlayerSkeleton {
 		private static final long serialVersionUID = 1L;
 	}
 
+	/**
+	 * Counters and sampled timers for move selection, cheap enough to leave
+	 * on. Counters are striped LongAdders, timings are taken for one call in
+	 * SAMPLE_RATE only.
+	 */
+	public static final Metrics METRICS = new Metrics();
+
+	public static class Metrics {
+		public static final int SAMPLE_RATE = 64;
+
+		/**
+		 * Whether the current call should be timed
+		 */
+		public static boolean sample() {
+			return (ThreadLocalRandom.current().nextInt() & (SAMPLE_RATE - 1)) == 0;
+		}
+
+		public Snapshot snapshot() {
+			long steals = 0;
+			synchronized (pools) {
+				for (ForkJoinPool pool : pools) {
+					steals += pool.getStealCount();
+				}
+			}
+
+			String[] featureNames = featureTimers.keySet().toArray(new String[0]);
+			Arrays.sort(featureNames);
+			double[] featureAvgNanos = new double[featureNames.length];
+			for (int i = 0; i < featureNames.length; ++i) {
+				featureAvgNanos[i] = featureTimers.get(featureNames[i]).averageNanos();
+			}
+
+			return new Snapshot(decisions.sum(), candidatesGenerated.sum(),
+					candidatesEvaluated.sum(), candidatesPruned.sum(),
+					cacheHits.sum(), cacheMisses.sum(),
+					tasksSpawned.sum(), steals,
+					average(decisionNanos, sampledDecisions),
+					average(moveNanos, sampledCandidates),
+					average(evaluationNanos, sampledCandidates),
+					featureNames, featureAvgNanos);
+		}
+
+		/**
+		 * Print a snapshot periodically from a daemon thread
+		 * @param periodSeconds time between dumps
+		 * @param out where to print
+		 * @return handle to cancel the dump
+		 */
+		public ScheduledFuture<?> startDump(long periodSeconds, final PrintStream out) {
+			ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "metrics-dump");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			return scheduler.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					out.println(snapshot());
+				}
+			}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+		}
+
+		private void register(ForkJoinPool pool) {
+			synchronized (pools) {
+				pools.add(pool);
+			}
+		}
+
+		private FeatureTimer[] featureTimers(MoveEvaluator[] evaluators) {
+			FeatureTimer[] timers = new FeatureTimer[evaluators.length];
+			for (int i = 0; i < evaluators.length; ++i) {
+				String name = evaluators[i].getClass().getSimpleName();
+				FeatureTimer timer = featureTimers.get(name);
+				if (timer == null) {
+					featureTimers.putIfAbsent(name, new FeatureTimer());
+					timer = featureTimers.get(name);
+				}
+				timers[i] = timer;
+			}
+			return timers;
+		}
+
+		private static double average(LongAdder total, LongAdder count) {
+			long n = count.sum();
+			return n == 0 ? 0.0 : (double) total.sum() / n;
+		}
+
+		private final LongAdder decisions = new LongAdder();
+		private final LongAdder candidatesGenerated = new LongAdder();
+		private final LongAdder candidatesEvaluated = new LongAdder();
+		private final LongAdder candidatesPruned = new LongAdder();
+		private final LongAdder cacheHits = new LongAdder();
+		private final LongAdder cacheMisses = new LongAdder();
+		private final LongAdder tasksSpawned = new LongAdder();
+		private final LongAdder sampledDecisions = new LongAdder();
+		private final LongAdder decisionNanos = new LongAdder();
+		private final LongAdder sampledCandidates = new LongAdder();
+		private final LongAdder moveNanos = new LongAdder();
+		private final LongAdder evaluationNanos = new LongAdder();
+		private final ConcurrentHashMap<String, FeatureTimer> featureTimers = new ConcurrentHashMap<String, FeatureTimer>();
+		private final Set<ForkJoinPool> pools = Collections.newSetFromMap(new WeakHashMap<ForkJoinPool, Boolean>());
+
+		public static class FeatureTimer {
+			public void record(long nanos) {
+				this.nanos.add(nanos);
+				samples.increment();
+			}
+
+			public double averageNanos() {
+				return average(nanos, samples);
+			}
+
+			private final LongAdder nanos = new LongAdder();
+			private final LongAdder samples = new LongAdder();
+		}
+
+		/**
+		 * Metrics at one point in time. Times are sampled averages in nanoseconds.
+		 */
+		public static class Snapshot {
+			public Snapshot(long decisions, long candidatesGenerated,
+					long candidatesEvaluated, long candidatesPruned,
+					long cacheHits, long cacheMisses,
+					long tasksSpawned, long steals, double decisionNanos,
+					double moveNanos, double evaluationNanos,
+					String[] featureNames, double[] featureNanos) {
+				this.decisions = decisions;
+				this.candidatesGenerated = candidatesGenerated;
+				this.candidatesEvaluated = candidatesEvaluated;
+				this.candidatesPruned = candidatesPruned;
+				this.cacheHits = cacheHits;
+				this.cacheMisses = cacheMisses;
+				this.tasksSpawned = tasksSpawned;
+				this.steals = steals;
+				this.decisionNanos = decisionNanos;
+				this.moveNanos = moveNanos;
+				this.evaluationNanos = evaluationNanos;
+				this.featureNames = featureNames;
+				this.featureNanos = featureNanos;
+			}
+
+			public long getDecisions() {
+				return decisions;
+			}
+
+			public long getCandidatesGenerated() {
+				return candidatesGenerated;
+			}
+
+			public long getCandidatesEvaluated() {
+				return candidatesEvaluated;
+			}
+
+			public long getCandidatesPruned() {
+				return candidatesPruned;
+			}
+
+			public long getCacheHits() {
+				return cacheHits;
+			}
+
+			public long getCacheMisses() {
+				return cacheMisses;
+			}
+
+			public long getTasksSpawned() {
+				return tasksSpawned;
+			}
+
+			public long getSteals() {
+				return steals;
+			}
+
+			public double getDecisionNanos() {
+				return decisionNanos;
+			}
+
+			public double getMoveNanos() {
+				return moveNanos;
+			}
+
+			public double getEvaluationNanos() {
+				return evaluationNanos;
+			}
+
+			public String[] getFeatureNames() {
+				return featureNames;
+			}
+
+			public double[] getFeatureNanos() {
+				return featureNanos;
+			}
+
+			@Override
+			public String toString() {
+				StringBuilder builder = new StringBuilder();
+				builder.append(String.format("decisions: %d, candidates generated: %d, evaluated: %d, pruned: %d%n",
+						decisions, candidatesGenerated, candidatesEvaluated, candidatesPruned));
+				builder.append(String.format("decision cache hits: %d, misses: %d%n", cacheHits, cacheMisses));
+				builder.append(String.format("tasks spawned: %d, steals: %d%n", tasksSpawned, steals));
+				builder.append(String.format("ns per decision: %.0f, per move: %.0f, per evaluation: %.0f",
+						decisionNanos, moveNanos, evaluationNanos));
+				for (int i = 0; i < featureNames.length; ++i) {
+					builder.append(String.format("%n  %s: %.0f ns", featureNames[i], featureNanos[i]));
+				}
+				return builder.toString();
+			}
+
+			private final long decisions;
+			private final long candidatesGenerated;
+			private final long candidatesEvaluated;
+			private final long candidatesPruned;
+			private final long cacheHits;
+			private final long cacheMisses;
+			private final long tasksSpawned;
+			private final long steals;
+			private final double decisionNanos;
+			private final double moveNanos;
+			private final double evaluationNanos;
+			private final String[] featureNames;
+			private final double[] featureNanos;
+		}
+	}
+
+	/**
+	 * Latency of every pickMove call broken down by phase. Generation,
+	 * map/reduce (scheduling included) and reduction are timed once per
+	 * decision, simulation and evaluation once per sampled candidate (one in
+	 * Metrics.SAMPLE_RATE).
+	 */
+	public static final DecisionLatency LATENCY = new DecisionLatency();
+
+	public static class DecisionLatency {
+		public static final int TOTAL = 0;
+		public static final int GENERATION = 1;
+		public static final int MAP_REDUCE = 2;
+		public static final int SIMULATION = 3;
+		public static final int EVALUATION = 4;
+		public static final int REDUCTION = 5;
+		private static final String[] PHASE_NAMES = { "total", "generation",
+				"map/reduce", "simulation", "evaluation", "reduction" };
+
+		public DecisionLatency() {
+			histograms = new LatencyHistogram[PHASE_NAMES.length];
+			for (int phase = 0; phase < histograms.length; ++phase) {
+				histograms[phase] = new LatencyHistogram();
+			}
+		}
+
+		public void record(int phase, long nanos) {
+			histograms[phase].record(nanos);
+		}
+
+		public LatencyHistogram getHistogram(int phase) {
+			return histograms[phase];
+		}
+
+		/**
+		 * @return one line per phase with count, mean and tail latencies in microseconds
+		 */
+		public String report() {
+			StringBuilder builder = new StringBuilder();
+			builder.append(String.format("%-12s %12s %9s %9s %9s %9s %9s",
+					"phase (us)", "count", "mean", "p50", "p99", "p99.9", "max"));
+			for (int phase = 0; phase < histograms.length; ++phase) {
+				LatencyHistogram.Snapshot snapshot = histograms[phase].snapshot();
+				builder.append(String.format("%n%-12s %12d %9.1f %9.1f %9.1f %9.1f %9.1f",
+						PHASE_NAMES[phase], snapshot.getCount(),
+						snapshot.getMean() / 1e3,
+						snapshot.getPercentile(0.5) / 1e3,
+						snapshot.getPercentile(0.99) / 1e3,
+						snapshot.getPercentile(0.999) / 1e3,
+						snapshot.getMax() / 1e3));
+			}
+			return builder.toString();
+		}
+
+		private final LatencyHistogram[] histograms;
+	}
+
+	/**
+	 * A log-linear histogram of nanosecond latencies, within about 6%.
+	 * Threads record into a fixed number of stripes picked by thread id, so
+	 * memory stays bounded however many threads come and go. Buckets are
+	 * only merged when a snapshot is taken.
+	 */
+	public static class LatencyHistogram {
+		// Linear sub-buckets per power of two
+		private static final int SUB_BUCKET_BITS = 4;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+		// A power of two, about twice the number of cores so threads rarely share a stripe
+		private static final int NUM_STRIPES = Math.min(64,
+				Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+
+		public void record(long nanos) {
+			stripe().record(Math.max(0L, nanos));
+		}
+
+		public Snapshot snapshot() {
+			long[] counts = new long[NUM_BUCKETS];
+			long count = 0;
+			long sum = 0;
+			long max = 0;
+			for (int stripe = 0; stripe < NUM_STRIPES; ++stripe) {
+				Recorder recorder = stripes.get(stripe);
+				if (recorder == null) {
+					continue;
+				}
+				for (int i = 0; i < NUM_BUCKETS; ++i) {
+					counts[i] += recorder.counts.get(i);
+				}
+				count += recorder.count.get();
+				sum += recorder.sum.get();
+				max = Math.max(max, recorder.max.get());
+			}
+			return new Snapshot(counts, count, sum, max);
+		}
+
+		private static int bucketOf(long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) value;
+			}
+
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+			return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+		}
+
+		// Highest value that falls in a bucket
+		private static long highestValueOf(int bucket) {
+			if (bucket < SUB_BUCKETS) {
+				return bucket;
+			}
+
+			int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+			long subBucket = bucket % SUB_BUCKETS;
+			long width = 1L << (exponent - SUB_BUCKET_BITS);
+			return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+		}
+
+		// Created on first use
+		private Recorder stripe() {
+			int index = (int) Thread.currentThread().getId() & (NUM_STRIPES - 1);
+			Recorder recorder = stripes.get(index);
+			if (recorder == null) {
+				stripes.compareAndSet(index, null, new Recorder());
+				recorder = stripes.get(index);
+			}
+			return recorder;
+		}
+
+		private final AtomicReferenceArray<Recorder> stripes = new AtomicReferenceArray<Recorder>(NUM_STRIPES);
+
+		// Shared by the threads of a stripe
+		private static class Recorder {
+			public void record(long value) {
+				counts.incrementAndGet(bucketOf(value));
+				count.incrementAndGet();
+				sum.addAndGet(value);
+				long current = max.get();
+				while (value > current && !max.compareAndSet(current, value)) {
+					current = max.get();
+				}
+			}
+
+			private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+			private final AtomicLong count = new AtomicLong();
+			private final AtomicLong sum = new AtomicLong();
+			private final AtomicLong max = new AtomicLong();
+		}
+
+		public static class Snapshot {
+			public Snapshot(long[] counts, long count, long sum, long max) {
+				this.counts = counts;
+				this.count = count;
+				this.sum = sum;
+				this.max = max;
+			}
+
+			public long getCount() {
+				return count;
+			}
+
+			public double getMean() {
+				return count == 0 ? 0.0 : (double) sum / count;
+			}
+
+			public long getMax() {
+				return max;
+			}
+
+			/**
+			 * @param quantile between 0 and 1
+			 * @return upper bound of the bucket holding the quantile
+			 */
+			public long getPercentile(double quantile) {
+				long total = 0;
+				for (long bucketCount : counts) {
+					total += bucketCount;
+				}
+				if (total == 0) {
+					return 0;
+				}
+
+				long rank = (long) Math.ceil(quantile * total);
+				long seen = 0;
+				for (int bucket = 0; bucket < counts.length; ++bucket) {
+					seen += counts[bucket];
+					if (seen >= rank && counts[bucket] > 0) {
+						return Math.min(highestValueOf(bucket), max);
+					}
+				}
+				return max;
+			}
+
+			private final long[] counts;
+			private final long count;
+			private final long sum;
+			private final long max;
+		}
+	}
+
 	/**
 	 * A common interface for different kind of evaluator
 	 */
 	public interface MoveEvaluator extends MapFunc<MoveResult, Float> {
 	}
 
+	/**
+	 * An evaluator that can also score a range of a CandidateBatch at once,
+	 * with the same float operations as map
+	 */
+	public interface BatchFeature extends MoveEvaluator {
+		/**
+		 * Write the score of candidates from (inclusive) to to (exclusive) to out
+		 */
+		void map(CandidateBatch batch, int from, int to, float[] out);
+	}
+
 	private static class Move {
 		public Move(ImmutableState state, int index, int piece,
 				int orientation, int position) {
@@ -798,7 +2707,11 @@ public class PlayerSkeleton {
 	public static class MoveResult {
 		public MoveResult(int field[][], int top[], int turn, boolean lost,
 				int rowsCleared) {
-			this.state = new ImmutableState(field, top, turn);
+			this(new ImmutableState(field, top, turn), lost, rowsCleared);
+		}
+
+		public MoveResult(ImmutableState state, boolean lost, int rowsCleared) {
+			this.state = state;
 			this.rowsCleared = rowsCleared;
 			this.lost = lost;
 		}
@@ -819,4 +2732,158 @@ public class PlayerSkeleton {
 		private final boolean lost;
 		private final ImmutableState state;
 	}
+
+	/**
+	 * Draws board snapshots published by the game loop at a fixed frame
+	 * rate. The game never waits for Swing: it only copies the board when
+	 * the previous snapshot has been drawn, so moves made in between are
+	 * skipped. Frames are drawn whole with the same TLabel calls as
+	 * State.draw, since the player cannot depend on other files.
+	 */
+	public static class AsyncRenderer {
+		public static final int DEFAULT_FPS = 60;
+
+		public AsyncRenderer(TLabel label) {
+			this(label, DEFAULT_FPS);
+		}
+
+		public AsyncRenderer(TLabel label, int framesPerSecond) {
+			this.label = label;
+			this.timer = new Timer(1000 / framesPerSecond, new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					drawLatest();
+				}
+			});
+			timer.setCoalesce(true);
+		}
+
+		public void start() {
+			timer.start();
+		}
+
+		/**
+		 * Publish a snapshot of the state if the renderer is ready for a new
+		 * frame. Cheap enough to call after every move.
+		 * 
+		 * @param s the state, only read on the calling thread
+		 */
+		public void publish(State s) {
+			if (frameRequested) {
+				frameRequested = false;
+				latest.set(new Snapshot(s));
+			}
+		}
+
+		/**
+		 * Draw the final state and stop rendering. Blocks until it is drawn.
+		 * 
+		 * @param s the state, only read on the calling thread
+		 */
+		public void finish(State s) throws InterruptedException {
+			latest.set(new Snapshot(s));
+			timer.stop();
+			try {
+				SwingUtilities.invokeAndWait(new Runnable() {
+					@Override
+					public void run() {
+						drawLatest();
+					}
+				});
+			} catch (InvocationTargetException e) {
+				e.printStackTrace();
+			}
+		}
+
+		public long getFramesDrawn() {
+			return framesDrawn;
+		}
+
+		// Always called on the event dispatch thread
+		private void drawLatest() {
+			Snapshot snapshot = latest.getAndSet(null);
+			if (snapshot != null) {
+				draw(snapshot);
+				++framesDrawn;
+			}
+
+			frameRequested = true;
+		}
+
+		private void draw(Snapshot snapshot) {
+			int[][] field = snapshot.getState().getField();
+			int[] top = snapshot.getState().getTop();
+			label.clear();
+			label.setPenRadius();
+			// outline board
+			label.line(0, 0, 0, State.ROWS + 5);
+			label.line(State.COLS, 0, State.COLS, State.ROWS + 5);
+			label.line(0, 0, State.COLS, 0);
+			label.line(0, State.ROWS - 1, State.COLS, State.ROWS - 1);
+
+			for (int c = 0; c < State.COLS; c++) {
+				for (int r = 0; r < top[c]; r++) {
+					if (field[r][c] != 0) {
+						drawBrick(c, r);
+					}
+				}
+			}
+
+			for (int c = 0; c < State.COLS; c++) {
+				label.setPenColor(Color.red);
+				label.line(c, top[c], c + 1, top[c]);
+				label.setPenColor();
+			}
+
+			// next piece above the board, in its first orientation
+			if (!snapshot.hasLost()) {
+				int piece = snapshot.getNextPiece();
+				for (int i = 0; i < State.getpWidth()[piece][0]; i++) {
+					for (int j = State.getpBottom()[piece][0][i]; j < State.getpTop()[piece][0][i]; j++) {
+						drawBrick(i, j + State.ROWS + 1);
+					}
+				}
+			}
+
+			label.show();
+		}
+
+		private void drawBrick(int c, int r) {
+			label.filledRectangleLL(c, r, 1, 1, State.brickCol);
+			label.rectangleLL(c, r, 1, 1);
+		}
+
+		private final TLabel label;
+		private final Timer timer;
+		private final AtomicReference<Snapshot> latest = new AtomicReference<Snapshot>();
+		private volatile boolean frameRequested = true;
+		private volatile long framesDrawn = 0;
+
+		/**
+		 * An immutable copy of everything needed to draw a frame
+		 */
+		private static class Snapshot {
+			public Snapshot(State s) {
+				this.state = new ImmutableState(s);
+				this.nextPiece = s.getNextPiece();
+				this.lost = s.hasLost();
+			}
+
+			public ImmutableState getState() {
+				return state;
+			}
+
+			public int getNextPiece() {
+				return nextPiece;
+			}
+
+			public boolean hasLost() {
+				return lost;
+			}
+
+			private final ImmutableState state;
+			private final int nextPiece;
+			private final boolean lost;
+		}
+	}
 }
\ No newline at end of file
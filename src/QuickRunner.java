@@ -1,21 +1,93 @@
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ForkJoinPool;
 
 public class QuickRunner {
+	//Seconds between metrics dumps
+	private static final int METRICS_PERIOD = 10;
+
 	public static void main(String[] args) {
-		final int NUM_GAMES = args.length >= 1 ? Integer.parseInt(args[0]) : 100;
+		//Flags start with "--", the rest are positional
+		ArrayList<String> positional = new ArrayList<String>();
+		boolean spectate = false;
+		boolean dumpMetrics = false;
+		int numRollouts = 0;
+		int rolloutDepth = 0;
+		long cacheBytes = DECISION_CACHE_BYTES;
+		boolean gameThreads = false;
+		for(String arg: args) {
+			if(arg.equals("--spectate")) {//show all games live
+				spectate = true;
+			}
+			else if(arg.equals("--metrics")) {//print move selection metrics periodically
+				dumpMetrics = true;
+			}
+			else if(arg.startsWith("--rollouts=")) {//score moves with <count>x<depth> greedy rollouts
+				String[] budget = arg.substring("--rollouts=".length()).split("x");
+				numRollouts = Integer.parseInt(budget[0]);
+				rolloutDepth = Integer.parseInt(budget[1]);
+			}
+			else if(arg.equals("--game-threads")) {//play games on their own threads, moves stay on the fork/join pool
+				gameThreads = true;
+			}
+			else if(arg.startsWith("--cache=")) {//decision cache budget in megabytes, 0 to disable
+				cacheBytes = Long.parseLong(arg.substring("--cache=".length())) << 20;
+			}
+			else {
+				positional.add(arg);
+			}
+		}
+
+		final int NUM_GAMES = positional.size() >= 1 ? Integer.parseInt(positional.get(0)) : 100;
+		//Optional directory to record games into, view them with TFrame <dir>/game-<n>
+		final String RECORD_DIR = positional.size() >= 2 ? positional.get(1) : null;
+		SpectatorFrame spectator = spectate ? new SpectatorFrame(NUM_GAMES) : null;
+
+		if(RECORD_DIR != null) {
+			new File(RECORD_DIR).mkdirs();
+		}
 
 		ForkJoinPool forkJoinPool = new ForkJoinPool();
-		PlayerSkeleton.MapReduce mapReduce = new PlayerSkeleton.MapReduce(forkJoinPool);
-		ArrayList<ForkJoinPool> inputs = new ArrayList<ForkJoinPool>(NUM_GAMES);
+		ExecutorService gameExecutor = gameThreads ? GameExecutors.newPerGameExecutor(forkJoinPool) : forkJoinPool;
+		PlayerSkeleton.ParallelismPolicy parallelismPolicy = new PlayerSkeleton.ParallelismPolicy(forkJoinPool.getParallelism());
+		PlayerSkeleton.MapReduce mapReduce = new PlayerSkeleton.MapReduce(gameExecutor);
+		PlayerSkeleton.MoveEvaluator evaluator =
+				new PlayerSkeleton.WeightedSumEvaluator(PlayerSkeleton.EVALUATORS, PlayerSkeleton.DEFAULT_WEIGHTS);
+		//Rollout scores depend on the turn, their decisions cannot be cached
+		PlayerSkeleton.DecisionCache decisionCache = null;
+		if(numRollouts > 0) {
+			PlayerSkeleton.RolloutEvaluator rolloutEvaluator =
+					new PlayerSkeleton.RolloutEvaluator(forkJoinPool, evaluator, numRollouts, rolloutDepth);
+			rolloutEvaluator.setParallelismPolicy(parallelismPolicy);
+			evaluator = rolloutEvaluator;
+		}
+		else if(cacheBytes > 0) {
+			decisionCache = new PlayerSkeleton.DecisionCache(cacheBytes);
+		}
+		//One batch per core, so games keep every core busy until batches finish and moves fan out
+		int batchSize = Math.max(1, (NUM_GAMES + forkJoinPool.getParallelism() - 1) / forkJoinPool.getParallelism());
+		ArrayList<ArrayList<GameConfig>> inputs = new ArrayList<ArrayList<GameConfig>>();
 		for(int i = 0; i < NUM_GAMES; ++i) {
-			inputs.add(forkJoinPool);
+			if(i % batchSize == 0) {
+				inputs.add(new ArrayList<GameConfig>(batchSize));
+			}
+			String recordPath = RECORD_DIR != null ? new File(RECORD_DIR, "game-" + i).getPath() : null;
+			inputs.get(inputs.size() - 1).add(new GameConfig(forkJoinPool, parallelismPolicy, evaluator, decisionCache,
+					i, recordPath, spectator));
 		}
 
 		try {
 			System.out.println("Running " + NUM_GAMES + " games. Please be patient.");
+			if(gameThreads) {
+				System.out.println(gameExecutor != forkJoinPool ? "Games on virtual threads" : "No virtual threads, games share the fork/join pool");
+			}
+			if(dumpMetrics) {
+				PlayerSkeleton.METRICS.startDump(METRICS_PERIOD, System.out);
+			}
 
-			GameStats stats = mapReduce.mapReduce(PLAY_GAME, AGGREGATE_STATS, inputs);
+			GameStats stats = mapReduce.mapReduce(PLAY_BATCH, AGGREGATE_STATS, inputs);
 
 			System.out.println("Rows cleared stats: ");
 			System.out.println("Min: " + stats.getScoreMin());
@@ -30,39 +102,217 @@ public class QuickRunner {
 			System.out.println("Max: " + stats.getLengthMax());
 			System.out.println("Avg: " + stats.getLengthAvg());
 			System.out.println("Std: " + stats.getLengthStd());
+
+			System.out.println();
+			System.out.println("Move decision latency: ");
+			System.out.println(PlayerSkeleton.LATENCY.report());
+
+			if(decisionCache != null) {
+				System.out.println(decisionCache);
+			}
+
+			if(dumpMetrics) {
+				System.out.println();
+				System.out.println(PlayerSkeleton.METRICS.snapshot());
+			}
 		}
 		catch(Exception e) {
 			e.printStackTrace();
 		}
 		finally {
+			gameExecutor.shutdown();
 			forkJoinPool.shutdown();
 		}
 	}
 
-	private static final PlayerSkeleton.MapFunc<ForkJoinPool, State> PLAY_GAME =
-			new PlayerSkeleton.MapFunc<ForkJoinPool, State>() {
+	//Default memory for decisions shared by all games
+	private static final long DECISION_CACHE_BYTES = 64L << 20;
 
-				@Override
-				public State map(ForkJoinPool forkJoinPool) {
-					State s = new State();
+	private static final PlayerSkeleton.MapFunc<ArrayList<GameConfig>, ArrayList<State>> PLAY_BATCH =
+			new PlayerSkeleton.MapFunc<ArrayList<GameConfig>, ArrayList<State>>() {
 
-					PlayerSkeleton p = new PlayerSkeleton(forkJoinPool);
-					while(!s.hasLost()) {
-						s.makeMove(p.pickMove(s,s.legalMoves()));
+				@Override
+				public ArrayList<State> map(ArrayList<GameConfig> configs) {
+					ArrayList<State> finished = new ArrayList<State>(configs.size());
+					ArrayList<Game> running = new ArrayList<Game>(configs.size());
+					PlayerSkeleton p = new PlayerSkeleton(configs.get(0).getForkJoinPool(), configs.get(0).getEvaluator());
+					p.setDecisionCache(configs.get(0).getDecisionCache());
+					PlayerSkeleton.ParallelismPolicy parallelismPolicy = configs.get(0).getParallelismPolicy();
+					p.setParallelismPolicy(parallelismPolicy);
+					PlayerSkeleton.ImmutableState[] boards = null;
+					int[] pieces = null;
+					int[] moves = null;
+
+					parallelismPolicy.gameStarted();
+					try {
+						for(GameConfig config: configs) {
+							running.add(new Game(config));
+						}
+
+						while(!running.isEmpty()) {
+							int numGames = running.size();
+							if(boards == null || boards.length != numGames) {
+								boards = new PlayerSkeleton.ImmutableState[numGames];
+								pieces = new int[numGames];
+								moves = new int[numGames];
+							}
+							for(int i = 0; i < numGames; ++i) {
+								State s = running.get(i).getState();
+								boards[i] = PlayerSkeleton.ImmutableState.occupancyOf(s);
+								pieces[i] = s.getNextPiece();
+							}
+
+							TetrisEvents.MoveDecision decisionEvent = TetrisEvents.MoveDecision.sample();
+							p.pickMoves(boards, pieces, moves);
+							if(decisionEvent != null) {
+								decisionEvent.turn = boards[0].getTurn();
+								decisionEvent.piece = pieces[0];
+								decisionEvent.games = numGames;
+								decisionEvent.commit();
+							}
+
+							for(int i = numGames - 1; i >= 0; --i) {
+								Game game = running.get(i);
+								game.makeMove(moves[i]);
+								if(game.getState().hasLost()) {
+									game.finish();
+									finished.add(game.getState());
+									running.remove(i);
+								}
+							}
+						}
+					}
+					catch(IOException e) {
+						throw new RuntimeException(e);
+					}
+					finally {
+						for(Game game: running) {
+							game.finish();
+						}
+						parallelismPolicy.gameFinished();
 					}
 
-					return s;
+					return finished;
 				}
 	};
 
-	private static final PlayerSkeleton.ReduceFunc<State, GameStats> AGGREGATE_STATS =
-			new PlayerSkeleton.ReduceFunc<State, GameStats>() {
+	private static final PlayerSkeleton.ReduceFunc<ArrayList<State>, GameStats> AGGREGATE_STATS =
+			new PlayerSkeleton.ReduceFunc<ArrayList<State>, GameStats>() {
 				@Override
-				public GameStats reduce(Iterable<State> games) {
+				public GameStats reduce(Iterable<ArrayList<State>> batches) {
+					ArrayList<State> games = new ArrayList<State>();
+					for(ArrayList<State> batch: batches) {
+						games.addAll(batch);
+					}
 					return new GameStats(games);
 				}
 	};
 
+	/**
+	 * A game being played, with its recording and live view
+	 */
+	private static class Game {
+		public Game(GameConfig config) throws IOException {
+			this.config = config;
+			this.event = new TetrisEvents.Game();
+			event.begin();
+			if(config.getRecordPath() != null) {
+				recorder = new GameRecorder(config.getRecordPath());
+			}
+		}
+
+		public State getState() {
+			return s;
+		}
+
+		public void makeMove(int move) throws IOException {
+			int piece = s.getNextPiece();
+			s.makeMove(move);
+
+			if(recorder != null) {
+				recorder.record(piece, move, s.getField(), s.getRowsCleared());
+			}
+			if(config.getSpectator() != null) {
+				config.getSpectator().publish(config.getIndex(), s.getField(), s.hasLost());
+			}
+		}
+
+		public void finish() {
+			if(recorder != null) {
+				try {
+					recorder.close();
+				}
+				catch(IOException e) {
+					e.printStackTrace();
+				}
+				recorder = null;
+			}
+
+			event.end();
+			if(event.shouldCommit()) {
+				event.runner = "QuickRunner";
+				event.rows = s.getRowsCleared();
+				event.turns = s.getTurnNumber();
+				event.commit();
+			}
+		}
+
+		private final GameConfig config;
+		private final State s = new State();
+		private final TetrisEvents.Game event;
+		private GameRecorder recorder = null;
+	}
+
+	private static class GameConfig {
+		public GameConfig(ForkJoinPool forkJoinPool, PlayerSkeleton.ParallelismPolicy parallelismPolicy,
+				PlayerSkeleton.MoveEvaluator evaluator, PlayerSkeleton.DecisionCache decisionCache,
+				int index, String recordPath, SpectatorFrame spectator) {
+			this.forkJoinPool = forkJoinPool;
+			this.parallelismPolicy = parallelismPolicy;
+			this.evaluator = evaluator;
+			this.decisionCache = decisionCache;
+			this.index = index;
+			this.recordPath = recordPath;
+			this.spectator = spectator;
+		}
+
+		public ForkJoinPool getForkJoinPool() {
+			return forkJoinPool;
+		}
+
+		public PlayerSkeleton.ParallelismPolicy getParallelismPolicy() {
+			return parallelismPolicy;
+		}
+
+		public PlayerSkeleton.MoveEvaluator getEvaluator() {
+			return evaluator;
+		}
+
+		public PlayerSkeleton.DecisionCache getDecisionCache() {
+			return decisionCache;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public String getRecordPath() {
+			return recordPath;
+		}
+
+		public SpectatorFrame getSpectator() {
+			return spectator;
+		}
+
+		private final ForkJoinPool forkJoinPool;
+		private final PlayerSkeleton.ParallelismPolicy parallelismPolicy;
+		private final PlayerSkeleton.MoveEvaluator evaluator;
+		private final PlayerSkeleton.DecisionCache decisionCache;
+		private final int index;
+		private final String recordPath;
+		private final SpectatorFrame spectator;
+	}
+
 	private static class GameStats {
 		public GameStats(Iterable<State> games) {
 			ArrayList<Float> scores = new ArrayList<Float>();
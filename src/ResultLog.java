@@ -0,0 +1,191 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only log of game outcomes in a memory-mapped file.
+ *
+ * Records are RECORD_BYTES long:
+ * marker (int), generation (int), chromosome id (long), sequence index (int),
+ * padding (int), seed (long), pieces played (long), rows cleared (long).
+ *
+ * A slot is claimed with an atomic counter, so games append from any thread
+ * without locking, and the marker is written after the rest of the record.
+ * The file grows CHUNK_RECORDS records at a time and the tail of the last
+ * chunk stays zeroed, so reopening a log continues after its last marked
+ * record and the results of earlier runs are kept.
+ */
+public class ResultLog implements Closeable {
+	public static final int RECORD_BYTES = 48;
+
+	private static final int MARKER = 0x52534C54;//"RSLT"
+	//Records per mapping, 48 MB
+	private static final int CHUNK_RECORDS = 1 << 20;
+	private static final long CHUNK_BYTES = (long)CHUNK_RECORDS * RECORD_BYTES;
+
+	/**
+	 * Open a log for appending, creating it if needed
+	 */
+	public static ResultLog open(String path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		try {
+			return new ResultLog(file);
+		}
+		catch(IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return index of the record
+	 */
+	public long append(long chromosomeId, int generation, int sequenceIndex, long seed, long pieces, long rows) throws IOException {
+		long index = nextIndex.getAndIncrement();
+		MappedByteBuffer chunk = chunk((int)(index / CHUNK_RECORDS));
+		int offset = (int)(index % CHUNK_RECORDS) * RECORD_BYTES;
+		chunk.putInt(offset + 4, generation);
+		chunk.putLong(offset + 8, chromosomeId);
+		chunk.putInt(offset + 16, sequenceIndex);
+		chunk.putLong(offset + 24, seed);
+		chunk.putLong(offset + 32, pieces);
+		chunk.putLong(offset + 40, rows);
+		chunk.putInt(offset, MARKER);
+		return index;
+	}
+
+	/**
+	 * @return number of records appended, including ones still being written
+	 */
+	public long size() {
+		return nextIndex.get();
+	}
+
+	/**
+	 * @return the record at index, null if it was never completely written
+	 */
+	public Record read(long index) throws IOException {
+		if(index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Record " + index + " of " + size());
+		}
+
+		MappedByteBuffer chunk = chunk((int)(index / CHUNK_RECORDS));
+		int offset = (int)(index % CHUNK_RECORDS) * RECORD_BYTES;
+		if(chunk.getInt(offset) != MARKER) {
+			return null;
+		}
+		return new Record(
+			chunk.getLong(offset + 8),
+			chunk.getInt(offset + 4),
+			chunk.getInt(offset + 16),
+			chunk.getLong(offset + 24),
+			chunk.getLong(offset + 32),
+			chunk.getLong(offset + 40)
+		);
+	}
+
+	/**
+	 * Flush appended records to the file
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			for(MappedByteBuffer chunk: chunks) {
+				if(chunk != null) {
+					chunk.force();
+				}
+			}
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	public static class Record {
+		public Record(long chromosomeId, int generation, int sequenceIndex, long seed, long pieces, long rows) {
+			this.chromosomeId = chromosomeId;
+			this.generation = generation;
+			this.sequenceIndex = sequenceIndex;
+			this.seed = seed;
+			this.pieces = pieces;
+			this.rows = rows;
+		}
+
+		public long getChromosomeId() {
+			return chromosomeId;
+		}
+
+		public int getGeneration() {
+			return generation;
+		}
+
+		public int getSequenceIndex() {
+			return sequenceIndex;
+		}
+
+		public long getSeed() {
+			return seed;
+		}
+
+		public long getPieces() {
+			return pieces;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		private final long chromosomeId;
+		private final int generation;
+		private final int sequenceIndex;
+		private final long seed;
+		private final long pieces;
+		private final long rows;
+	}
+
+	private ResultLog(RandomAccessFile file) throws IOException {
+		this.file = file;
+		int numChunks = (int)((file.length() + CHUNK_BYTES - 1) / CHUNK_BYTES);
+		this.chunks = new MappedByteBuffer[numChunks];
+
+		//Scan back from the end of the file to the last marked record
+		long index = (long)numChunks * CHUNK_RECORDS - 1;
+		while(index >= 0) {
+			MappedByteBuffer chunk = chunk((int)(index / CHUNK_RECORDS));
+			if(chunk.getInt((int)(index % CHUNK_RECORDS) * RECORD_BYTES) == MARKER) {
+				break;
+			}
+			--index;
+		}
+		this.nextIndex = new AtomicLong(index + 1);
+	}
+
+	private MappedByteBuffer chunk(int index) throws IOException {
+		MappedByteBuffer[] chunks = this.chunks;
+		if(index < chunks.length && chunks[index] != null) {
+			return chunks[index];
+		}
+
+		synchronized(this) {
+			chunks = this.chunks;
+			if(index < chunks.length && chunks[index] != null) {
+				return chunks[index];
+			}
+
+			chunks = Arrays.copyOf(chunks, Math.max(index + 1, chunks.length));
+			//Mapping past the end grows the file
+			chunks[index] = file.getChannel().map(FileChannel.MapMode.READ_WRITE, index * CHUNK_BYTES, CHUNK_BYTES);
+			this.chunks = chunks;
+			return chunks[index];
+		}
+	}
+
+	private final RandomAccessFile file;
+	//Mapped lazily, copied on every new mapping so readers need no lock
+	private volatile MappedByteBuffer[] chunks;
+	private final AtomicLong nextIndex;
+}
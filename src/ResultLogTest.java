@@ -0,0 +1,63 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResultLogTest {
+	@Test
+	public void reopenTest() throws IOException {
+		File path = File.createTempFile("results", ".bin");
+		path.deleteOnExit();
+
+		ResultLog log = ResultLog.open(path.getPath());
+		for(int i = 0; i < 3; ++i) {
+			assertEquals(i, log.append(100 + i, 1, i, 7 * i, 1000 + i, 10 * i));
+		}
+		log.close();
+
+		//The last record was cut short before its marker was written
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		file.seek(2 * ResultLog.RECORD_BYTES);
+		file.writeInt(0);
+		file.close();
+
+		ResultLog reopened = ResultLog.open(path.getPath());
+		assertEquals(2, reopened.size());
+		ResultLog.Record record = reopened.read(1);
+		assertEquals(101, record.getChromosomeId());
+		assertEquals(1, record.getGeneration());
+		assertEquals(1, record.getSequenceIndex());
+		assertEquals(7, record.getSeed());
+		assertEquals(1001, record.getPieces());
+		assertEquals(10, record.getRows());
+
+		//Appending continues after the last marked record
+		assertEquals(2, reopened.append(200, 2, 0, 3, 500, 50));
+		reopened.close();
+
+		ResultLog reader = ResultLog.open(path.getPath());
+		assertEquals(3, reader.size());
+		assertEquals(100, reader.read(0).getChromosomeId());
+		assertEquals(200, reader.read(2).getChromosomeId());
+		assertEquals(2, reader.read(2).getGeneration());
+		reader.close();
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void boundsTest() throws IOException {
+		File path = File.createTempFile("results", ".bin");
+		path.deleteOnExit();
+
+		ResultLog log = ResultLog.open(path.getPath());
+		try {
+			log.append(1, 0, 0, 0, 0, 0);
+			log.read(1);
+		}
+		finally {
+			log.close();
+		}
+	}
+}
@@ -0,0 +1,204 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * Piece sequences kept off the heap in a memory-mapped file, 3 bits per
+ * piece and 21 pieces per long.
+ *
+ * The file starts with HEADER_LONGS longs: MAGIC, the number of sequences
+ * and their length. Each sequence follows, padded to whole longs, with
+ * piece i in bits 3 * (i % 21) of long i / 21.
+ *
+ * Reads are absolute gets on the mapping, so any number of threads may read
+ * at once, and other processes on the machine can share the pages by
+ * opening the file read-only.
+ *
+ * A mapped file is never truncated or written over: a store is created and
+ * filled in a new temporary file, and close moves it to its path in one
+ * rename. Readers that opened the previous file keep its pages until they
+ * let go of it.
+ */
+public class SequenceStore implements Closeable {
+	public static final int BITS_PER_PIECE = 3;
+	public static final int PIECES_PER_LONG = Long.SIZE / BITS_PER_PIECE;
+
+	private static final long MAGIC = 0x5445545253455131L;//"TETRSEQ1"
+	private static final int HEADER_LONGS = 4;
+	private static final int PIECE_MASK = (1 << BITS_PER_PIECE) - 1;
+	//Longs per mapping, a single mapping holds at most 2 GB
+	private static final int CHUNK_SHIFT = 27;
+	private static final int CHUNK_LONGS = 1 << CHUNK_SHIFT;
+
+	/**
+	 * Create a store, every piece starts as 0. Pieces are written to a new
+	 * file next to path, which replaces path when the store is closed.
+	 */
+	public static SequenceStore create(String path, int numSequences, long length) throws IOException {
+		if(numSequences < 1 || length < 1) {
+			throw new IllegalArgumentException("Number of sequences and length must be positive");
+		}
+
+		File target = new File(path).getAbsoluteFile();
+		File temporary = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+		RandomAccessFile file = new RandomAccessFile(temporary, "rw");
+		try {
+			file.setLength(totalLongs(numSequences, length) * Long.BYTES);
+			file.writeLong(MAGIC);
+			file.writeLong(numSequences);
+			file.writeLong(length);
+			return new SequenceStore(file, FileChannel.MapMode.READ_WRITE, numSequences, length, temporary, target);
+		}
+		catch(IOException e) {
+			file.close();
+			temporary.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Open an existing store read-only, e.g. from a worker process
+	 */
+	public static SequenceStore open(String path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			if(file.readLong() != MAGIC) {
+				throw new IOException(path + " is not a sequence store");
+			}
+			int numSequences = (int)file.readLong();
+			long length = file.readLong();
+			return new SequenceStore(file, FileChannel.MapMode.READ_ONLY, numSequences, length, null, null);
+		}
+		catch(IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public int getNumSequences() {
+		return numSequences;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return piece at index of the given sequence
+	 */
+	public int get(int sequence, long index) {
+		if(index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Piece " + index + " of a sequence of " + length);
+		}
+
+		long word = getLong(wordPosition(sequence, index / PIECES_PER_LONG));
+		return (int)(word >>> ((index % PIECES_PER_LONG) * BITS_PER_PIECE)) & PIECE_MASK;
+	}
+
+	/**
+	 * Write a sequence of a created store with the pieces of new
+	 * Random(seed), the same pieces as new Random(seed).nextInt(State.N_PIECES)
+	 * called in a loop
+	 */
+	public void fill(int sequence, long seed) {
+		if(mode != FileChannel.MapMode.READ_WRITE) {
+			throw new IllegalStateException("Store was opened read-only");
+		}
+
+		Random random = new Random(seed);
+		long numWords = longsPerSequence(length);
+		long index = 0;
+		for(long word = 0; word < numWords; ++word) {
+			long packed = 0;
+			for(int slot = 0; slot < PIECES_PER_LONG && index < length; ++slot, ++index) {
+				packed |= (long)random.nextInt(State.N_PIECES) << (slot * BITS_PER_PIECE);
+			}
+			putLong(wordPosition(sequence, word), packed);
+		}
+	}
+
+	/**
+	 * Flush written pieces and move a created store to its path, replacing
+	 * the file there. Mappings stay valid until the store is garbage
+	 * collected, Java 17 cannot unmap them earlier.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if(mode == FileChannel.MapMode.READ_WRITE) {
+				for(MappedByteBuffer mapping: mappings) {
+					mapping.force();
+				}
+			}
+		}
+		finally {
+			file.close();
+		}
+
+		if(temporary != null) {
+			Files.move(temporary.toPath(), target.toPath(),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private SequenceStore(RandomAccessFile file, FileChannel.MapMode mode, int numSequences, long length,
+			File temporary, File target) throws IOException {
+		this.file = file;
+		this.mode = mode;
+		this.temporary = temporary;
+		this.target = target;
+		this.numSequences = numSequences;
+		this.length = length;
+		this.wordsPerSequence = longsPerSequence(length);
+
+		long totalLongs = totalLongs(numSequences, length);
+		int numChunks = (int)((totalLongs + CHUNK_LONGS - 1) >>> CHUNK_SHIFT);
+		mappings = new MappedByteBuffer[numChunks];
+		chunks = new LongBuffer[numChunks];
+		for(int chunk = 0; chunk < numChunks; ++chunk) {
+			long first = (long)chunk << CHUNK_SHIFT;
+			long size = Math.min(CHUNK_LONGS, totalLongs - first);
+			mappings[chunk] = file.getChannel().map(mode, first * Long.BYTES, size * Long.BYTES);
+			chunks[chunk] = mappings[chunk].asLongBuffer();
+		}
+	}
+
+	private long wordPosition(int sequence, long word) {
+		return HEADER_LONGS + sequence * wordsPerSequence + word;
+	}
+
+	private long getLong(long position) {
+		return chunks[(int)(position >>> CHUNK_SHIFT)].get((int)(position & (CHUNK_LONGS - 1)));
+	}
+
+	private void putLong(long position, long value) {
+		chunks[(int)(position >>> CHUNK_SHIFT)].put((int)(position & (CHUNK_LONGS - 1)), value);
+	}
+
+	private static long longsPerSequence(long length) {
+		return (length + PIECES_PER_LONG - 1) / PIECES_PER_LONG;
+	}
+
+	private static long totalLongs(int numSequences, long length) {
+		return HEADER_LONGS + numSequences * longsPerSequence(length);
+	}
+
+	private final RandomAccessFile file;
+	private final FileChannel.MapMode mode;
+	//File being written and the path it is moved to, null when opened read-only
+	private final File temporary;
+	private final File target;
+	private final int numSequences;
+	private final long length;
+	private final long wordsPerSequence;
+	private final MappedByteBuffer[] mappings;
+	//Long views of mappings, absolute gets and puts only
+	private final LongBuffer[] chunks;
+}
@@ -0,0 +1,90 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SequenceStoreTest {
+	@Test
+	public void fillTest() throws IOException {
+		File path = File.createTempFile("sequences", ".bin");
+		path.deleteOnExit();
+
+		//Not a multiple of PIECES_PER_LONG, the last long of each sequence is partly used
+		int length = SequenceStore.PIECES_PER_LONG * 100 + 5;
+		SequenceStore store = SequenceStore.create(path.getPath(), 3, length);
+		for(int sequence = 0; sequence < 3; ++sequence) {
+			store.fill(sequence, sequence * 31);
+		}
+		store.close();
+
+		//Pieces must be the ones the on-heap sequences had, read back from another mapping
+		SequenceStore reader = SequenceStore.open(path.getPath());
+		assertEquals(3, reader.getNumSequences());
+		assertEquals(length, reader.getLength());
+		for(int sequence = 0; sequence < 3; ++sequence) {
+			Random random = new Random(sequence * 31);
+			for(int index = 0; index < length; ++index) {
+				assertEquals(random.nextInt(State.N_PIECES), reader.get(sequence, index));
+			}
+		}
+		reader.close();
+	}
+
+	@Test
+	public void replaceTest() throws IOException {
+		File path = File.createTempFile("sequences", ".bin");
+		path.deleteOnExit();
+
+		SequenceStore first = SequenceStore.create(path.getPath(), 1, 1000);
+		first.fill(0, 1);
+		first.close();
+		SequenceStore reader = SequenceStore.open(path.getPath());
+
+		//The next generation is published while the first one is still mapped
+		SequenceStore second = SequenceStore.create(path.getPath(), 1, 1000);
+		second.fill(0, 2);
+		second.close();
+		SequenceStore newReader = SequenceStore.open(path.getPath());
+
+		Random oldPieces = new Random(1);
+		Random newPieces = new Random(2);
+		for(int index = 0; index < 1000; ++index) {
+			assertEquals(oldPieces.nextInt(State.N_PIECES), reader.get(0, index));
+			assertEquals(newPieces.nextInt(State.N_PIECES), newReader.get(0, index));
+		}
+		reader.close();
+		newReader.close();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void readOnlyTest() throws IOException {
+		File path = File.createTempFile("sequences", ".bin");
+		path.deleteOnExit();
+
+		SequenceStore.create(path.getPath(), 1, 10).close();
+		SequenceStore reader = SequenceStore.open(path.getPath());
+		try {
+			reader.fill(0, 1);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void boundsTest() throws IOException {
+		File path = File.createTempFile("sequences", ".bin");
+		path.deleteOnExit();
+
+		SequenceStore store = SequenceStore.create(path.getPath(), 2, 10);
+		try {
+			store.get(0, 10);
+		}
+		finally {
+			store.close();
+		}
+	}
+}
@@ -0,0 +1,132 @@
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.Timer;
+
+/**
+ * Shows many games at once as a grid of small boards. Worker threads call
+ * publish after every move, which only packs the board when the view has
+ * asked for a new sample of that game, so workers never wait for the UI.
+ * Each tile is drawn by writing one pixel per cell into a shared bitmap.
+ */
+public class SpectatorFrame extends JFrame {
+	private static final long serialVersionUID = 1L;
+	private static final int FPS = 20;
+	private static final int CELL_PIXELS = 3;
+	// Pixels between tiles
+	private static final int GAP = 2;
+
+	private static final int BACKGROUND = 0x404040;
+	private static final int EMPTY = 0xFFFFFF;
+	private static final int FILLED = 0x808080;
+	private static final int FINISHED = 0xC04040;
+
+	// Games that have not started yet have status 0
+	private static final int RUNNING = 1;
+	private static final int DONE = 2;
+
+	public SpectatorFrame(int numGames) {
+		this.numGames = numGames;
+		this.boards = new AtomicReferenceArray<long[]>(numGames);
+		this.status = new AtomicIntegerArray(numGames);
+		this.wanted = new AtomicIntegerArray(numGames);
+		this.tilesPerRow = (int)Math.ceil(Math.sqrt(numGames));
+		int tileRows = (numGames + tilesPerRow - 1) / tilesPerRow;
+
+		image = new BufferedImage(
+				tilesPerRow * (State.COLS + GAP) + GAP,
+				tileRows * (State.ROWS + GAP) + GAP,
+				BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		for(int i = 0; i < pixels.length; ++i) {
+			pixels[i] = BACKGROUND;
+		}
+		for(int game = 0; game < numGames; ++game) {
+			wanted.set(game, 1);
+		}
+
+		JComponent view = new JComponent() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void paintComponent(Graphics g) {
+				g.drawImage(image, 0, 0, getWidth(), getHeight(), null);
+			}
+		};
+		view.setPreferredSize(new Dimension(image.getWidth() * CELL_PIXELS, image.getHeight() * CELL_PIXELS));
+
+		setResizable(true);
+		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		setTitle("Tetris BKW - " + numGames + " games");
+		setContentPane(view);
+		pack();
+		setVisible(true);
+
+		timer = new Timer(1000 / FPS, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				refresh();
+			}
+		});
+		timer.start();
+	}
+
+	/**
+	 * Offer the current board of a game. Never blocks.
+	 * @param game index of the game
+	 * @param field the field, only read on the calling thread
+	 * @param finished whether the game is over
+	 */
+	public void publish(int game, int[][] field, boolean finished) {
+		if(wanted.get(game) != 0 || finished) {
+			wanted.lazySet(game, 0);
+			long[] bits = new long[Bitboard.NUM_LONGS];
+			Bitboard.pack(field, bits);
+			status.set(game, finished ? DONE : RUNNING);
+			boards.set(game, bits);
+		}
+	}
+
+	// Always called on the event dispatch thread
+	private void refresh() {
+		for(int game = 0; game < numGames; ++game) {
+			long[] bits = boards.getAndSet(game, null);
+			if(bits != null) {
+				blit(game, bits, status.get(game) == DONE ? FINISHED : FILLED);
+			}
+			if(status.get(game) != DONE) {
+				wanted.lazySet(game, 1);
+			}
+		}
+		repaint();
+	}
+
+	private void blit(int game, long[] bits, int color) {
+		int left = GAP + (game % tilesPerRow) * (State.COLS + GAP);
+		int bottom = GAP + (game / tilesPerRow) * (State.ROWS + GAP) + State.ROWS - 1;
+		int stride = image.getWidth();
+		for(int row = 0; row < State.ROWS; ++row) {
+			int offset = (bottom - row) * stride + left;
+			for(int col = 0; col < State.COLS; ++col) {
+				pixels[offset + col] = Bitboard.isSet(bits, row, col) ? color : EMPTY;
+			}
+		}
+	}
+
+	private final int numGames;
+	private final int tilesPerRow;
+	private final AtomicReferenceArray<long[]> boards;
+	private final AtomicIntegerArray status;
+	private final AtomicIntegerArray wanted;
+	private final BufferedImage image;
+	private final int[] pixels;
+	private final Timer timer;
+}
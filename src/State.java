@@ -17,6 +17,7 @@ public class State {
 
 	
 	public TLabel label;
+	private BoardPainter painter;
 	
 	//current turn
 	private int turn = 0;
@@ -258,7 +259,22 @@ public class State {
 	}
 	
 	public void draw() {
+		if(painter == null || painter.getLabel() != label)	painter = new BoardPainter(label);
+		painter.draw(field, top);
+	}
+	
+	//draws any board - used for replays and snapshots
+	public static void draw(TLabel label, int[][] field, int[] top) {
 		label.clear();
+		drawCells(label, field, top, 0, COLS, 0, ROWS);
+		label.show();
+		
+		
+	}
+	
+	//draws columns [c0,c1) and rows [r0,r1) of a board over what is already there
+	//the outline and column tops are drawn whole, clip the label to limit them
+	public static void drawCells(TLabel label, int[][] field, int[] top, int c0, int c1, int r0, int r1) {
 		label.setPenRadius();
 		//outline board
 		label.line(0, 0, 0, ROWS+5);
@@ -268,28 +284,24 @@ public class State {
 		
 		//show bricks
 				
-		for(int c = 0; c < COLS; c++) {
-			for(int r = 0; r < top[c]; r++) {
+		for(int c = c0; c < c1; c++) {
+			for(int r = r0; r < Math.min(r1, top[c]); r++) {
 				if(field[r][c] != 0) {
-					drawBrick(c,r);
+					drawBrick(label,c,r);
 				}
 			}
 		}
 		
-		for(int i = 0; i < COLS; i++) {
+		for(int i = c0; i < c1; i++) {
 			label.setPenColor(Color.red);
 			label.line(i, top[i], i+1, top[i]);
 			label.setPenColor();
 		}
-		
-		label.show();
-		
-		
 	}
 	
 	public static final Color brickCol = Color.gray; 
 	
-	private void drawBrick(int c, int r) {
+	private static void drawBrick(TLabel label, int c, int r) {
 		label.filledRectangleLL(c, r, 1, 1, brickCol);
 		label.rectangleLL(c, r, 1, 1);
 	}
@@ -297,10 +309,10 @@ public class State {
 	public void drawNext(int slot, int orient) {
 		for(int i = 0; i < pWidth[nextPiece][orient]; i++) {
 			for(int j = pBottom[nextPiece][orient][i]; j <pTop[nextPiece][orient][i]; j++) {
-				drawBrick(i+slot, j+ROWS+1);
+				drawBrick(label, i+slot, j+ROWS+1);
 			}
 		}
-		label.show();
+		label.showLL(0, ROWS+.9, COLS, 4.2, 2);
 	}
 	
 	//visualization
@@ -0,0 +1,162 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the progress of a training run on localhost:
+ * /status as JSON and /metrics in the Prometheus text format.
+ * Requests only read counters, they never lock the evaluation path.
+ */
+public class StatusServer {
+	/**
+	 * @param gameExecutor executor the fitness games run on, may be forkJoinPool
+	 * @param forkJoinPool pool that moves fan out to
+	 */
+	public StatusServer(int port, TrainingProgress progress, ExecutorService gameExecutor, ForkJoinPool forkJoinPool) throws IOException {
+		this.progress = progress;
+		this.gameExecutor = gameExecutor;
+		this.forkJoinPool = forkJoinPool;
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "status-server");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.setExecutor(executor);
+		server.createContext("/status", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, "application/json", json());
+			}
+		});
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, "text/plain; version=0.0.4", prometheus());
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdown();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	private String json() {
+		return String.format(Locale.ROOT,
+				"{\"generation\":%d,\"generationsCompleted\":%d,"
+				+ "\"bestFitness\":%s,\"medianFitness\":%s,"
+				+ "\"evaluationsInFlight\":%d,\"evaluationsCompleted\":%d,\"evaluationsPerGeneration\":%d,"
+				+ "\"piecesPerSecond\":%.1f,\"totalPieces\":%d,"
+				+ "\"poolUtilization\":%.3f,\"generationEtaSeconds\":%.1f,\"uptimeSeconds\":%.1f}",
+				progress.getGeneration(), progress.getGenerationsCompleted(),
+				jsonNumber(progress.getBestFitness()), jsonNumber(progress.getMedianFitness()),
+				progress.getEvaluationsInFlight(), progress.getEvaluationsCompleted(), progress.getNumEvaluations(),
+				progress.getPiecesPerSecond(), progress.getTotalPieces(),
+				poolUtilization(), progress.getGenerationEtaSeconds(), progress.getUptimeSeconds());
+	}
+
+	private String prometheus() {
+		PlayerSkeleton.Metrics.Snapshot metrics = PlayerSkeleton.METRICS.snapshot();
+		StringBuilder builder = new StringBuilder();
+		gauge(builder, "tetris_generation", "Generation being evaluated", progress.getGeneration());
+		gauge(builder, "tetris_best_fitness", "Best fitness of the last generation", progress.getBestFitness());
+		gauge(builder, "tetris_median_fitness", "Median fitness of the last generation", progress.getMedianFitness());
+		gauge(builder, "tetris_evaluations_in_flight", "Fitness evaluations running", progress.getEvaluationsInFlight());
+		gauge(builder, "tetris_evaluations_completed", "Fitness evaluations done in this generation", progress.getEvaluationsCompleted());
+		gauge(builder, "tetris_pieces_per_second", "Pieces played per second in this generation", progress.getPiecesPerSecond());
+		counter(builder, "tetris_pieces_total", "Pieces played", progress.getTotalPieces());
+		gauge(builder, "tetris_pool_utilization", "Threads running games or moves over parallelism of the pool", poolUtilization());
+		gauge(builder, "tetris_generation_eta_seconds", "Estimated seconds left in this generation, -1 if unknown", progress.getGenerationEtaSeconds());
+		counter(builder, "tetris_decisions_total", "Moves picked", metrics.getDecisions());
+		counter(builder, "tetris_candidates_evaluated_total", "Candidate placements evaluated", metrics.getCandidatesEvaluated());
+		counter(builder, "tetris_candidates_pruned_total", "Candidate placements pruned", metrics.getCandidatesPruned());
+		counter(builder, "tetris_decision_cache_hits_total", "Moves taken from a decision cache", metrics.getCacheHits());
+		counter(builder, "tetris_decision_cache_misses_total", "Decision cache lookups that missed", metrics.getCacheMisses());
+		counter(builder, "tetris_pool_steals_total", "Fork/join steals", metrics.getSteals());
+		return builder.toString();
+	}
+
+	/**
+	 * Games that do not fan out decide their moves on their own thread, so
+	 * the threads of the game executor count as well as the pool's. An
+	 * executor without a thread count, e.g. virtual threads, counts its
+	 * games in flight.
+	 */
+	private double poolUtilization() {
+		int busyThreads = forkJoinPool.getActiveThreadCount();
+		if(gameExecutor instanceof ThreadPoolExecutor) {
+			busyThreads += ((ThreadPoolExecutor)gameExecutor).getActiveCount();
+		}
+		else if(gameExecutor instanceof ForkJoinPool) {
+			if(gameExecutor != forkJoinPool) {
+				busyThreads += ((ForkJoinPool)gameExecutor).getActiveThreadCount();
+			}
+		}
+		else {
+			busyThreads += progress.getEvaluationsInFlight();
+		}
+		return Math.min(1.0, (double)busyThreads / forkJoinPool.getParallelism());
+	}
+
+	private static String jsonNumber(float value) {
+		return Float.isNaN(value) || Float.isInfinite(value) ? "null" : Float.toString(value);
+	}
+
+	private static void gauge(StringBuilder builder, String name, String help, double value) {
+		metric(builder, name, "gauge", help, value);
+	}
+
+	private static void counter(StringBuilder builder, String name, String help, double value) {
+		metric(builder, name, "counter", help, value);
+	}
+
+	private static void metric(StringBuilder builder, String name, String type, String help, double value) {
+		builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		builder.append(name).append(' ').append(Double.isNaN(value) ? "NaN" : String.format(Locale.ROOT, "%s", value)).append('\n');
+	}
+
+	private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(200, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private final TrainingProgress progress;
+	private final ExecutorService gameExecutor;
+	private final ForkJoinPool forkJoinPool;
+	private final ExecutorService executor;
+	private final HttpServer server;
+}
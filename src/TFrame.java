@@ -1,3 +1,4 @@
+import java.awt.BorderLayout;
 import java.awt.Graphics2D;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
@@ -7,6 +8,10 @@ import java.io.IOException;
 
 import javax.imageio.ImageIO;
 import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.JSlider;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 
 
@@ -19,9 +24,13 @@ public class TFrame extends JFrame implements KeyListener{
 	
 	public static final int MANUAL = 0;
 	public static final int NONE = 1;
+	public static final int REPLAY = 2;
 	
 	public int mode = MANUAL;
 	
+	private GameReplay replay;
+	private JSlider scrubber;
+	
 	//constructor
 	public TFrame (State s){
 		this.s = s;
@@ -45,6 +54,54 @@ public class TFrame extends JFrame implements KeyListener{
 		s.label = label;
 	}
 	
+	//scrubbing view over a recorded game
+	//left/right step one move, page up/down jump one keyframe, home/end go to either end
+	public TFrame (GameReplay replay){
+		this.replay = replay;
+		this.mode = REPLAY;
+		scrubber = new JSlider(0, replay.getNumMoves(), 0);
+		scrubber.setFocusable(false);
+		scrubber.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				showMove(scrubber.getValue());
+			}
+		});
+		JPanel panel = new JPanel(new BorderLayout());
+		panel.add(label.draw, BorderLayout.CENTER);
+		panel.add(scrubber, BorderLayout.SOUTH);
+		setResizable(false);
+		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);            // closes all windows when this is closed
+		setTitle("Tetris BKW - Replay");
+		setContentPane(panel);
+		pack();
+		label.BORDER = .05;
+		label.setXscale(0, State.COLS);
+		label.setYscale(0, State.ROWS+5);
+		this.addKeyListener(this);
+		setVisible(true);
+		showMove(0);
+	}
+	
+	//draws the recorded board after the given number of moves
+	public void showMove(int moveNumber) {
+		GameReplay.Position position;
+		try {
+			position = replay.seek(moveNumber);
+		}
+		catch(IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		
+		PlayerSkeleton.ImmutableState state = position.getState();
+		State.draw(label, state.getField(), state.getTop());
+		label.text(State.COLS/2.0, State.ROWS+2.5, "Move " + position.getMoveNumber() + "/" + replay.getNumMoves()
+				+ "  Rows " + position.getRowsCleared());
+		if(position.hasLost())	label.text(State.COLS/2.0, State.ROWS/2.0, "Game Over");
+		label.show();
+		if(scrubber.getValue() != position.getMoveNumber())	scrubber.setValue(position.getMoveNumber());
+	}
+	
 	///
 	/// ADDED BY DON (AKA Pimp Masta) 1/22/09
 	///
@@ -96,6 +153,7 @@ public class TFrame extends JFrame implements KeyListener{
 						s.draw();
 						if(mode == NONE)	{
 							label.text(State.COLS/2.0, State.ROWS/2.0, "You Lose");
+							label.show();
 						}
 						s.clearNext();
 						s.drawNext(slot, orient);
@@ -106,6 +164,20 @@ public class TFrame extends JFrame implements KeyListener{
 				}
 			}
 			case(NONE):	break;
+			case(REPLAY): {
+				int moveNumber = scrubber.getValue();
+				switch(e.getKeyCode()) {
+					case(KeyEvent.VK_RIGHT):	moveNumber++;	break;
+					case(KeyEvent.VK_LEFT):	moveNumber--;	break;
+					case(KeyEvent.VK_PAGE_UP):	moveNumber += replay.getKeyframeInterval();	break;
+					case(KeyEvent.VK_PAGE_DOWN):	moveNumber -= replay.getKeyframeInterval();	break;
+					case(KeyEvent.VK_HOME):	moveNumber = 0;	break;
+					case(KeyEvent.VK_END):	moveNumber = replay.getNumMoves();	break;
+					default:	return;
+				}
+				scrubber.setValue(Math.max(0, Math.min(moveNumber, replay.getNumMoves())));
+				break;
+			}
 			default:
 				System.out.println("unknown mode");
 				break;
@@ -143,6 +215,16 @@ public class TFrame extends JFrame implements KeyListener{
     }
 	
 	public static void main(String[] args) {
+		if(args.length >= 1) {//replay a recording, e.g. TFrame games/game-0
+			try {
+				new TFrame(new GameReplay(args[0]));
+			}
+			catch(IOException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
+		
 		State s = new State();
 		TFrame t = new TFrame(s);
 		s.draw();
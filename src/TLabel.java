@@ -11,6 +11,7 @@ import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Toolkit;
 import java.awt.event.KeyListener;
@@ -614,6 +615,34 @@ public class TLabel{
 	
 
 	
+	// restrict drawing to a rectangle given by its lower left corner, grown by some pixels
+	public void setClipLL(double x, double y, double w, double h, int padding) {
+		offscreen.setClip(pixelBoundsLL(x, y, w, h, padding));
+	}
+
+	public void clearClip() {
+		offscreen.setClip(null);
+	}
+
+	// view on-screen only the given rectangle, lower left corner, grown by some pixels
+	public void showLL(double x, double y, double w, double h, int padding) {
+		Rectangle r = pixelBoundsLL(x, y, w, h, padding);
+		onscreen.drawImage(offscreenImage, r.x, r.y, r.x + r.width, r.y + r.height,
+				r.x, r.y, r.x + r.width, r.y + r.height, null);
+		//the icon is centered in the label
+		int offsetX = Math.max(0, (draw.getWidth() - width) / 2);
+		int offsetY = Math.max(0, (draw.getHeight() - height) / 2);
+		draw.repaint(r.x + offsetX, r.y + offsetY, r.width, r.height);
+	}
+
+	private Rectangle pixelBoundsLL(double x, double y, double w, double h, int padding) {
+		int x0 = Math.max(0, (int) Math.floor(scaleX(x)) - padding);
+		int x1 = Math.min(width, (int) Math.ceil(scaleX(x + w)) + padding);
+		int y0 = Math.max(0, (int) Math.floor(scaleY(y + h)) - padding);
+		int y1 = Math.min(height, (int) Math.ceil(scaleY(y)) + padding);
+		return new Rectangle(x0, y0, Math.max(0, x1 - x0), Math.max(0, y1 - y0));
+	}
+
 	// view on-screen, creating new frame if necessary
 	public void show() {
 		onscreen.drawImage(offscreenImage, 0, 0, null);
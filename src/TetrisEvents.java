@@ -0,0 +1,112 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for games, move decisions, fitness
+ * evaluations and GA generations. Record with e.g.
+ * java -XX:StartFlightRecording=filename=train.jfr -cp bin TetrisProblem
+ * Events are only built when JFR is recording them.
+ */
+public class TetrisEvents {
+	// One move decision in this many is recorded
+	public static final int MOVE_SAMPLE_RATE = 64;
+
+	@Name("tetris.Game")
+	@Label("Game")
+	@Category("Tetris")
+	@Description("A whole game, from the first move to the loss")
+	@StackTrace(false)
+	public static class Game extends Event {
+		@Label("Runner")
+		public String runner;
+
+		@Label("Seed")
+		@Description("Seed of the piece sequence, 0 when pieces are not seeded")
+		public long seed;
+
+		@Label("Rows Cleared")
+		public long rows;
+
+		@Label("Turns")
+		public long turns;
+	}
+
+	@Name("tetris.MoveDecision")
+	@Label("Move Decision")
+	@Category("Tetris")
+	@Description("Time spent in PlayerSkeleton.pickMove, sampled")
+	@StackTrace(false)
+	public static class MoveDecision extends Event {
+		@Label("Turn")
+		public long turn;
+
+		@Label("Piece")
+		public int piece;
+
+		@Label("Games")
+		@Description("Games decided together by one pickMoves call, 1 for pickMove")
+		public int games = 1;
+
+		/**
+		 * Start timing a decision if this one is sampled
+		 * @return the started event or null
+		 */
+		public static MoveDecision sample() {
+			if(ThreadLocalRandom.current().nextInt(MOVE_SAMPLE_RATE) != 0) {
+				return null;
+			}
+
+			MoveDecision event = new MoveDecision();
+			if(!event.isEnabled()) {
+				return null;
+			}
+
+			event.begin();
+			return event;
+		}
+	}
+
+	@Name("tetris.FitnessEvaluation")
+	@Label("Fitness Evaluation")
+	@Category({ "Tetris", "Genetic Algorithm" })
+	@Description("One chromosome playing one piece sequence")
+	@StackTrace(false)
+	public static class FitnessEvaluation extends Event {
+		@Label("Chromosome Id")
+		public long chromosomeId;
+
+		@Label("Sequence")
+		public int sequence;
+
+		@Label("Pieces Played")
+		public long pieces;
+
+		@Label("Rows Cleared")
+		public long rows;
+	}
+
+	@Name("tetris.Generation")
+	@Label("Generation")
+	@Category({ "Tetris", "Genetic Algorithm" })
+	@Description("Evaluation and breeding of one GA generation")
+	@StackTrace(false)
+	public static class Generation extends Event {
+		@Label("Generation")
+		public int generation;
+
+		@Label("Population Size")
+		public int populationSize;
+
+		@Label("Best Fitness")
+		public float bestFitness;
+
+		@Label("Mean Fitness")
+		public float meanFitness;
+	}
+}
@@ -1,6 +1,10 @@
+import java.io.File;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ForkJoinPool;
 
 class TetrisProblem implements ProblemDomain<WeightSet> {
@@ -10,20 +14,87 @@ class TetrisProblem implements ProblemDomain<WeightSet> {
 	public static final float CROSSOVER_RATE = 0.6f;
 	public static final float MUTATION_RATE = 0.01f;
 	public static final int POPULATION_SIZE = 100;
+	//Seconds between metrics dumps when running with --metrics
+	public static final int METRICS_PERIOD = 60;
+	//Memory for the decisions of each chromosome
+	public static final long DECISION_CACHE_BYTES = 16L << 20;
+	//Directory of the mapped sequence and result files
+	public static final String DATA_DIR = "train-data";
 
 	public static void main(String[] args) {
 		System.out.println("Number of features: " + PlayerSkeleton.EVALUATORS.length);
+		int httpPort = -1;
+		int beamWidth = 0;
+		int beamDepth = 0;
+		long cacheBytes = DECISION_CACHE_BYTES;
+		boolean gameThreads = false;
+		String dataDir = DATA_DIR;
+		for(String arg: args) {
+			if(arg.equals("--metrics")) {//print move selection metrics periodically
+				PlayerSkeleton.METRICS.startDump(METRICS_PERIOD, System.out);
+			}
+			else if(arg.startsWith("--http=")) {//serve progress on localhost:<port>/status and /metrics
+				httpPort = Integer.parseInt(arg.substring("--http=".length()));
+			}
+			else if(arg.startsWith("--beam=")) {//plan with a beam search of <width>x<depth> over the sequence
+				String[] size = arg.substring("--beam=".length()).split("x");
+				beamWidth = Integer.parseInt(size[0]);
+				beamDepth = Integer.parseInt(size[1]);
+			}
+			else if(arg.equals("--game-threads")) {//evaluate chromosomes on their own threads, moves stay on the fork/join pool
+				gameThreads = true;
+			}
+			else if(arg.startsWith("--cache=")) {//decision cache budget per chromosome in megabytes, 0 to disable
+				cacheBytes = Long.parseLong(arg.substring("--cache=".length())) << 20;
+			}
+			else if(arg.startsWith("--data=")) {//keep sequences.bin and results.bin in <dir>
+				dataDir = arg.substring("--data=".length());
+			}
+		}
+
+		ResultLog results;
+		try {
+			new File(dataDir).mkdirs();
+			results = ResultLog.open(new File(dataDir, "results.bin").getPath());
+		}
+		catch(IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		System.out.println("Results in " + dataDir + ", " + results.size() + " games so far");
 
 		ForkJoinPool forkJoinPool = new ForkJoinPool();
+		TetrisProblem problem = new TetrisProblem(forkJoinPool, new File(dataDir, "sequences.bin").getPath(), results);
+		if(beamWidth > 0) {
+			problem.setBeamSearch(beamWidth, beamDepth);
+			System.out.println("Beam search: width " + beamWidth + ", depth " + beamDepth);
+		}
+		problem.setDecisionCacheBytes(cacheBytes);
+		ExecutorService gameExecutor = gameThreads ? GameExecutors.newPerGameExecutor(forkJoinPool) : null;
+		if(gameExecutor == forkJoinPool) {
+			System.out.println("No virtual threads, chromosomes share the fork/join pool");
+			gameExecutor = null;
+		}
+		else if(gameExecutor != null) {
+			System.out.println("Chromosomes on virtual threads");
+		}
+		StatusServer statusServer = null;
 
 		GeneticAlgorithmConfig config =
 			new GeneticAlgorithmConfig(forkJoinPool)
 			    .setCrossoverRate(CROSSOVER_RATE)
 			    .setMutationRate(MUTATION_RATE)
-			    .setPopulationSize(POPULATION_SIZE);
+			    .setPopulationSize(POPULATION_SIZE)
+			    .setFitnessExecutor(gameExecutor);
 		try {
+			if(httpPort >= 0) {
+				statusServer = new StatusServer(httpPort, problem.getProgress(), config.getFitnessExecutor(), forkJoinPool);
+				statusServer.start();
+				System.out.println("Serving progress on http://localhost:" + statusServer.getPort() + "/status");
+			}
+
 			ChromosomeFitnessPair<WeightSet> fittest =
-					GeneticAlgorithm.run(new TetrisProblem(forkJoinPool), config);
+					GeneticAlgorithm.run(problem, config);
 
 			System.out.println();
 			System.out.println("Best score: " + fittest.getFitness());
@@ -32,13 +103,63 @@ class TetrisProblem implements ProblemDomain<WeightSet> {
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
+			if(statusServer != null) {
+				statusServer.stop();
+			}
+			if(gameExecutor != null) {
+				gameExecutor.shutdown();
+			}
 			forkJoinPool.shutdown();
+			try {
+				problem.close();
+				results.close();
+			}
+			catch(IOException e) {
+				e.printStackTrace();
+			}
 		}
 	}
 
-	public TetrisProblem(ForkJoinPool forkJoinPool) {
+	/**
+	 * @param sequencesPath where every generation publishes its NUM_SEQUENCES sequences of SEQUENCE_LENGTH pieces
+	 * @param results log that every fitness game is appended to
+	 */
+	public TetrisProblem(ForkJoinPool forkJoinPool, String sequencesPath, ResultLog results) {
 		this.forkJoinPool = forkJoinPool;
-		this.mapReduce = new PlayerSkeleton.MapReduce(forkJoinPool);
+		this.sequencesPath = sequencesPath;
+		this.results = results;
+		this.parallelismPolicy = new PlayerSkeleton.ParallelismPolicy(forkJoinPool.getParallelism());
+	}
+
+	public TrainingProgress getProgress() {
+		return progress;
+	}
+
+	/**
+	 * Let go of the sequences of the last generation
+	 */
+	public void close() throws IOException {
+		if(sequences != null) {
+			sequences.close();
+		}
+	}
+
+	/**
+	 * Play fitness games with a BeamSearchPlanner instead of greedy moves
+	 * @param width boards kept per ply, 0 to play greedily
+	 * @param depth pieces looked ahead, including the one being played
+	 */
+	public void setBeamSearch(int width, int depth) {
+		this.beamWidth = width;
+		this.beamDepth = depth;
+	}
+
+	/**
+	 * Give each chromosome its own PlayerSkeleton.DecisionCache while it plays
+	 * @param bytes memory budget of each cache, 0 to play without one
+	 */
+	public void setDecisionCacheBytes(long bytes) {
+		this.decisionCacheBytes = bytes;
 	}
 
 	@Override
@@ -54,11 +175,24 @@ class TetrisProblem implements ProblemDomain<WeightSet> {
 
 	@Override
 	public void beginGeneration() {
+		progress.beginGeneration(generationNumber, POPULATION_SIZE);
+
 		//Create new sequences to use for this generation's evaluation
-		for(int seqIndex = 0; seqIndex < NUM_SEQUENCES; ++seqIndex) {
-			for(int pieceIndex = 0; pieceIndex < SEQUENCE_LENGTH; ++pieceIndex) {
-				sequences[seqIndex][pieceIndex] = random.nextInt(State.N_PIECES);
+		//Each one is seeded so a game can be reproduced from its recorded seed
+		//They go to a new file that replaces the last generation's, whose mapping stays valid for its readers
+		try {
+			SequenceStore writer = SequenceStore.create(sequencesPath, NUM_SEQUENCES, SEQUENCE_LENGTH);
+			for(int seqIndex = 0; seqIndex < NUM_SEQUENCES; ++seqIndex) {
+				seeds[seqIndex] = random.nextLong();
+				writer.fill(seqIndex, seeds[seqIndex]);
 			}
+			writer.close();
+
+			close();
+			sequences = SequenceStore.open(sequencesPath);
+		}
+		catch(IOException e) {
+			throw new RuntimeException(e);
 		}
 	}
 
@@ -66,17 +200,30 @@ class TetrisProblem implements ProblemDomain<WeightSet> {
 	public boolean endGeneration(Iterable<ChromosomeFitnessPair<WeightSet>> generation) {
 		float maxScore = -Float.MAX_VALUE;
 		ChromosomeFitnessPair<WeightSet> bestChromosome = null;
+		//The results of earlier generations come first, progress only reports this one
+		float generationBest = -Float.MAX_VALUE;
+		ArrayList<Float> generationFitnesses = new ArrayList<Float>();
+		int index = 0;
 		for(ChromosomeFitnessPair<WeightSet> pair: generation) {
 			float score = pair.getFitness();
 			if(score > maxScore) {
 				maxScore = score;
 				bestChromosome = pair;
 			}
+			if(index >= firstResult) {
+				generationBest = Math.max(generationBest, score);
+				generationFitnesses.add(score);
+			}
+			++index;
 		}
+		firstResult = index;
 
 		System.out.println("Score: " + maxScore);
 		printChromosome(bestChromosome);
 
+		progress.endGeneration(generationBest, medianFitness(generationFitnesses));
+		++generationNumber;
+
 		if(maxScore > bestScore) {
 			bestScore = maxScore;
 			numLostGenerations = 0;
@@ -98,12 +245,28 @@ class TetrisProblem implements ProblemDomain<WeightSet> {
 
 	@Override
 	public float evaluateFitness(WeightSet chromosome) {
+		progress.evaluationStarted();
+		parallelismPolicy.gameStarted();
 		ArrayList<TestConfig> testConfigs = new ArrayList<TestConfig>(NUM_SEQUENCES);
 		for(int i = 0; i < NUM_SEQUENCES; ++i) {
-			testConfigs.add(new TestConfig(chromosome.getWeights(), sequences[i], forkJoinPool));
+			testConfigs.add(new TestConfig(chromosome.getId(), chromosome.getWeights(), generationNumber, i, seeds[i],
+					sequences, results, forkJoinPool, parallelismPolicy, progress));
 		}
 
-		return mapReduce.mapReduce(FITNESS_FUNC, AVG_SCORE, testConfigs);
+		try {
+			if(beamWidth > 0) {
+				BeamSearchPlanner planner = new BeamSearchPlanner(forkJoinPool,
+						new PlayerSkeleton.WeightedSumEvaluator(PlayerSkeleton.EVALUATORS, chromosome.getWeights()),
+						beamWidth, beamDepth);
+				planner.setParallelismPolicy(parallelismPolicy);
+				return playPlanned(testConfigs, planner);
+			}
+			return playSequences(testConfigs, decisionCacheBytes);
+		}
+		finally {
+			parallelismPolicy.gameFinished();
+			progress.evaluationFinished();
+		}
 	}
 
 	@Override
@@ -132,6 +295,17 @@ class TetrisProblem implements ProblemDomain<WeightSet> {
 		return new WeightSet[] { children1, children2 };
 	}
 
+	//Sorts fitnesses
+	private static float medianFitness(ArrayList<Float> fitnesses) {
+		Collections.sort(fitnesses);
+
+		int count = fitnesses.size();
+		if(count == 0) {
+			return Float.NaN;
+		}
+		return count % 2 == 1 ? fitnesses.get(count / 2) : (fitnesses.get(count / 2 - 1) + fitnesses.get(count / 2)) / 2.0f;
+	}
+
 	private float randomGene() {
 		return random.nextFloat() * 1000.0f;
 	}
@@ -158,77 +332,273 @@ class TetrisProblem implements ProblemDomain<WeightSet> {
 	}
 
 	private ForkJoinPool forkJoinPool;
+	//Chromosomes being evaluated decide whether their moves fan out
+	private final PlayerSkeleton.ParallelismPolicy parallelismPolicy;
 	private Random random = new Random();
 	private float bestScore = -Float.MAX_VALUE;
 	private int numLostGenerations = 0;
-	private PlayerSkeleton.MapReduce mapReduce;
-	private int[][] sequences = new int[NUM_SEQUENCES][SEQUENCE_LENGTH];
+	private final String sequencesPath;
+	//Off the heap, 3 bits per piece, opened read-only for each generation
+	private SequenceStore sequences;
+	private final ResultLog results;
+	private long[] seeds = new long[NUM_SEQUENCES];
+	private int generationNumber = 0;
+	//Index of the first result of the generation being evaluated
+	private int firstResult = 0;
+	private int beamWidth = 0;
+	private int beamDepth = 0;
+	private long decisionCacheBytes = 0;
+	private final TrainingProgress progress = new TrainingProgress();
+
+	/**
+	 * Play every sequence with one chromosome. The games advance in lockstep
+	 * so each turn is decided by a single batched pickMoves call.
+	 * @param cacheBytes budget of the decision cache shared by the games, 0 for none
+	 * @return average rows cleared
+	 */
+	private static float playSequences(ArrayList<TestConfig> configs, long cacheBytes) {
+		int numGames = configs.size();
+		TestConfig firstConfig = configs.get(0);
+		PlayerSkeleton player = new PlayerSkeleton(firstConfig.getForkJoinPool(), firstConfig.getWeights());
+		player.setParallelismPolicy(firstConfig.getParallelismPolicy());
+		if(cacheBytes > 0) {
+			player.setDecisionCache(new PlayerSkeleton.DecisionCache(cacheBytes));
+		}
+		TrainingProgress progress = firstConfig.getProgress();
 
-	private static final PlayerSkeleton.MapFunc<TestConfig, Float> FITNESS_FUNC =
-	new PlayerSkeleton.MapFunc<TestConfig, Float>() {
-		@Override
-		public Float map(TestConfig config) {
+		ArrayList<SequenceGame> running = new ArrayList<SequenceGame>(numGames);
+		for(TestConfig config: configs) {
+			running.add(new SequenceGame(config));
+		}
 
-			PlayerSkeleton.ImmutableState state = new PlayerSkeleton.ImmutableState();
-			PlayerSkeleton player = new PlayerSkeleton(config.getForkJoinPool(), config.getWeights());
+		float sum = 0.0f;
+		PlayerSkeleton.ImmutableState[] boards = null;
+		int[] pieces = null;
+		int[] moves = null;
+		int turn = 0;
+		while(!running.isEmpty()) {
+			int numRunning = running.size();
+			if(boards == null || boards.length != numRunning) {
+				boards = new PlayerSkeleton.ImmutableState[numRunning];
+				pieces = new int[numRunning];
+				moves = new int[numRunning];
+			}
+			for(int i = 0; i < numRunning; ++i) {
+				SequenceGame game = running.get(i);
+				boards[i] = game.state;
+				pieces[i] = game.config.getPiece(turn);
+			}
 
+			TetrisEvents.MoveDecision decisionEvent = TetrisEvents.MoveDecision.sample();
+			player.pickMoves(boards, pieces, moves);
+			if(decisionEvent != null) {
+				decisionEvent.turn = turn;
+				decisionEvent.piece = pieces[0];
+				decisionEvent.games = numRunning;
+				decisionEvent.commit();
+			}
+
+			for(int i = numRunning - 1; i >= 0; --i) {
+				SequenceGame game = running.get(i);
+				PlayerSkeleton.MoveResult result = game.state.move(PlayerSkeleton.PieceTable.placement(pieces[i], moves[i]));
+				game.state = result.getState();
+				game.rowsCleared += result.getRowsCleared();
+				//A game that outlasts its sequence ends with it
+				if(result.hasLost() || turn + 1 >= game.config.getLength()) {
+					game.finish(turn + 1);
+					sum += (float)game.rowsCleared;
+					running.remove(i);
+				}
+			}
+
+			++turn;
+			if(turn % TrainingProgress.PIECE_BATCH == 0) {
+				for(SequenceGame game: running) {
+					game.creditPieces(turn);
+				}
+			}
+		}
+
+		return sum / (float)numGames;
+	}
+
+	/**
+	 * Play every sequence one after another, each move planned with a beam
+	 * search that runs in parallel
+	 * @return average rows cleared
+	 */
+	private static float playPlanned(ArrayList<TestConfig> configs, BeamSearchPlanner planner) {
+		float sum = 0.0f;
+		for(TestConfig config: configs) {
+			SequenceGame game = new SequenceGame(config);
+			//Pieces the planner looks ahead at, copied out of the store
+			int[] window = new int[planner.getDepth()];
 			int turn = 0;
 			boolean hasLost = false;
-			int rowsCleared = 0;
-			int[] sequence = config.getSequence();
-
-			while(!hasLost) {
-				int piece = sequence[turn];
-				int[][] legalMoves = State.legalMoves[piece];
-				int move = player.pickMove(state, piece, State.legalMoves[piece]);
-				PlayerSkeleton.MoveResult result = state.move(piece, legalMoves[move][0], legalMoves[move][1]);
-				state = result.getState();
+			//Stop at the end of the sequence, the window would be empty
+			while(!hasLost && turn < config.getLength()) {
+				long remaining = config.getLength() - turn;
+				if(remaining < window.length) {
+					window = new int[(int)remaining];
+				}
+				for(int ply = 0; ply < window.length; ++ply) {
+					window[ply] = config.getPiece(turn + ply);
+				}
+				int piece = window[0];
+				TetrisEvents.MoveDecision decisionEvent = TetrisEvents.MoveDecision.sample();
+				int move = planner.plan(game.state, window, 0);
+				if(decisionEvent != null) {
+					decisionEvent.turn = turn;
+					decisionEvent.piece = piece;
+					decisionEvent.commit();
+				}
+
+				PlayerSkeleton.MoveResult result = game.state.move(PlayerSkeleton.PieceTable.placement(piece, move));
+				game.state = result.getState();
+				game.rowsCleared += result.getRowsCleared();
 				hasLost = result.hasLost();
-				rowsCleared += result.getRowsCleared();
 
 				++turn;
+				if(turn % TrainingProgress.PIECE_BATCH == 0) {
+					game.creditPieces(turn);
+				}
 			}
-			return (float)rowsCleared;
+			game.finish(turn);
+			sum += (float)game.rowsCleared;
+		}
+
+		return sum / (float)configs.size();
+	}
+
+	/**
+	 * One chromosome playing one sequence
+	 */
+	private static class SequenceGame {
+		public SequenceGame(TestConfig config) {
+			this.config = config;
+			this.evaluationEvent = new TetrisEvents.FitnessEvaluation();
+			this.gameEvent = new TetrisEvents.Game();
+			evaluationEvent.begin();
+			gameEvent.begin();
 		}
-	};
 
-	private static final PlayerSkeleton.ReduceFunc<Float, Float> AVG_SCORE =
-	new PlayerSkeleton.ReduceFunc<Float, Float>() {
-		@Override
-		public Float reduce(Iterable<Float> inputs) {
-			int count = 0;
-			float sum = 0.0f;
+		/**
+		 * Add the pieces played since the last credit to the progress
+		 * @param turns pieces played in the game so far
+		 */
+		public void creditPieces(long turns) {
+			config.getProgress().piecesPlayed(turns - piecesCredited);
+			piecesCredited = turns;
+		}
 
-			for(float num: inputs) {
-				sum += num;
-				++count;
+		/**
+		 * Credit the rest of the pieces and record the result
+		 */
+		public void finish(int turns) {
+			creditPieces(turns);
+			try {
+				config.getResults().append(config.getChromosomeId(), config.getGeneration(), config.getSequenceIndex(),
+						config.getSeed(), turns, rowsCleared);
+			}
+			catch(IOException e) {
+				throw new RuntimeException(e);
 			}
 
-			return sum / (float)count;
+			gameEvent.end();
+			if(gameEvent.shouldCommit()) {
+				gameEvent.runner = "TetrisProblem";
+				gameEvent.seed = config.getSeed();
+				gameEvent.rows = rowsCleared;
+				gameEvent.turns = turns;
+				gameEvent.commit();
+			}
+			evaluationEvent.end();
+			if(evaluationEvent.shouldCommit()) {
+				evaluationEvent.chromosomeId = config.getChromosomeId();
+				evaluationEvent.sequence = config.getSequenceIndex();
+				evaluationEvent.pieces = turns;
+				evaluationEvent.rows = rowsCleared;
+				evaluationEvent.commit();
+			}
 		}
-	};
+
+		private final TestConfig config;
+		private final TetrisEvents.FitnessEvaluation evaluationEvent;
+		private final TetrisEvents.Game gameEvent;
+		private PlayerSkeleton.ImmutableState state = new PlayerSkeleton.ImmutableState();
+		private int rowsCleared = 0;
+		private long piecesCredited = 0;
+	}
 
 	private static class TestConfig {
-		public TestConfig(float[] weights, int[] sequence, ForkJoinPool forkJoinPool) {
+		public TestConfig(long chromosomeId, float[] weights, int generation, int sequenceIndex, long seed,
+				SequenceStore sequences, ResultLog results, ForkJoinPool forkJoinPool,
+				PlayerSkeleton.ParallelismPolicy parallelismPolicy, TrainingProgress progress) {
+			this.chromosomeId = chromosomeId;
 			this.weights = weights;
-			this.sequence = sequence;
+			this.generation = generation;
+			this.sequenceIndex = sequenceIndex;
+			this.seed = seed;
+			this.sequences = sequences;
+			this.results = results;
 			this.forkJoinPool = forkJoinPool;
+			this.parallelismPolicy = parallelismPolicy;
+			this.progress = progress;
+		}
+
+		public long getChromosomeId() {
+			return chromosomeId;
 		}
 
 		public float[] getWeights() {
 			return weights;
 		}
 
-		public int[] getSequence() {
-			return sequence;
+		public int getGeneration() {
+			return generation;
+		}
+
+		public int getSequenceIndex() {
+			return sequenceIndex;
+		}
+
+		public long getSeed() {
+			return seed;
+		}
+
+		public int getPiece(long turn) {
+			return sequences.get(sequenceIndex, turn);
+		}
+
+		public long getLength() {
+			return sequences.getLength();
+		}
+
+		public ResultLog getResults() {
+			return results;
 		}
 
 		public ForkJoinPool getForkJoinPool() {
 			return forkJoinPool;
 		}
 
+		public PlayerSkeleton.ParallelismPolicy getParallelismPolicy() {
+			return parallelismPolicy;
+		}
+
+		public TrainingProgress getProgress() {
+			return progress;
+		}
+
 		private final ForkJoinPool forkJoinPool;
+		private final PlayerSkeleton.ParallelismPolicy parallelismPolicy;
+		private final TrainingProgress progress;
+		private final long chromosomeId;
 		private final float[] weights;
-		private final int[] sequence;
+		private final int generation;
+		private final int sequenceIndex;
+		private final long seed;
+		private final SequenceStore sequences;
+		private final ResultLog results;
 	}
 }
\ No newline at end of file
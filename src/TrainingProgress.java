@@ -0,0 +1,119 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress of a training run, updated from evaluation threads without
+ * locking and read by StatusServer
+ */
+public class TrainingProgress {
+	// Pieces are reported in batches of this size by the game loop
+	public static final int PIECE_BATCH = 1024;
+
+	public TrainingProgress() {
+		this.startTime = System.nanoTime();
+	}
+
+	/**
+	 * Called before any evaluation of a generation starts
+	 * @param generation generation number
+	 * @param numEvaluations number of evaluations in the generation
+	 */
+	public void beginGeneration(int generation, int numEvaluations) {
+		evaluationsCompleted.reset();
+		generationPieces.reset();
+		this.numEvaluations = numEvaluations;
+		this.generationStartTime = System.nanoTime();
+		this.generation = generation;
+	}
+
+	/**
+	 * Called after all evaluations of a generation are done
+	 */
+	public void endGeneration(float bestFitness, float medianFitness) {
+		this.bestFitness = bestFitness;
+		this.medianFitness = medianFitness;
+		this.generationsCompleted = generation + 1;
+	}
+
+	public void evaluationStarted() {
+		evaluationsInFlight.increment();
+	}
+
+	public void evaluationFinished() {
+		evaluationsInFlight.decrement();
+		evaluationsCompleted.increment();
+	}
+
+	public void piecesPlayed(long numPieces) {
+		totalPieces.add(numPieces);
+		generationPieces.add(numPieces);
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	public int getGenerationsCompleted() {
+		return generationsCompleted;
+	}
+
+	public float getBestFitness() {
+		return bestFitness;
+	}
+
+	public float getMedianFitness() {
+		return medianFitness;
+	}
+
+	public long getEvaluationsInFlight() {
+		return evaluationsInFlight.sum();
+	}
+
+	public long getEvaluationsCompleted() {
+		return evaluationsCompleted.sum();
+	}
+
+	public int getNumEvaluations() {
+		return numEvaluations;
+	}
+
+	public long getTotalPieces() {
+		return totalPieces.sum();
+	}
+
+	/**
+	 * @return pieces per second over the current generation
+	 */
+	public double getPiecesPerSecond() {
+		double seconds = (System.nanoTime() - generationStartTime) / 1e9;
+		return seconds > 0.0 ? generationPieces.sum() / seconds : 0.0;
+	}
+
+	/**
+	 * @return estimated seconds until the current generation is evaluated, or -1 if unknown
+	 */
+	public double getGenerationEtaSeconds() {
+		long completed = evaluationsCompleted.sum();
+		if(completed == 0) {
+			return -1.0;
+		}
+
+		double seconds = (System.nanoTime() - generationStartTime) / 1e9;
+		return seconds * Math.max(0, numEvaluations - completed) / completed;
+	}
+
+	public double getUptimeSeconds() {
+		return (System.nanoTime() - startTime) / 1e9;
+	}
+
+	private final long startTime;
+	private final LongAdder evaluationsInFlight = new LongAdder();
+	private final LongAdder evaluationsCompleted = new LongAdder();
+	private final LongAdder totalPieces = new LongAdder();
+	private final LongAdder generationPieces = new LongAdder();
+	private volatile long generationStartTime = System.nanoTime();
+	private volatile int generation = 0;
+	private volatile int generationsCompleted = 0;
+	private volatile int numEvaluations = 0;
+	private volatile float bestFitness = Float.NaN;
+	private volatile float medianFitness = Float.NaN;
+}
@@ -1,7 +1,9 @@
+import java.util.concurrent.atomic.AtomicLong;
 
 public class WeightSet implements Chromosome {
 	public WeightSet(float[] weights) {
 		this.weights = weights;
+		this.id = nextId.incrementAndGet();
 	}
 
 	@Override
@@ -13,5 +15,13 @@ public class WeightSet implements Chromosome {
 		return weights;
 	}
 
+	//Unique per WeightSet created in this process, used to identify it in recordings
+	public long getId() {
+		return id;
+	}
+
 	float[] weights;
-}
\ No newline at end of file
+	private final long id;
+
+	private static final AtomicLong nextId = new AtomicLong();
+}
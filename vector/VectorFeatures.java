@@ -0,0 +1,93 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Height features with the incubating Vector API, one candidate per lane.
+ * Every lane goes through the same operations in the same order as
+ * PlayerSkeleton.ScalarHeightFeatures, so the scores are identical.
+ * Compiled apart from src/ so the rest builds without the module, and
+ * only loaded by PlayerSkeleton when the jdk.incubator.vector module is
+ * present (java --add-modules jdk.incubator.vector).
+ */
+public class VectorFeatures implements PlayerSkeleton.HeightFeatures {
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+	@Override
+	public void roughness(int[] heights, int stride, int from, int to, int[] out) {
+		int i = from;
+		for (int bound = from + INTS.loopBound(to - from); i < bound; i += INTS.length()) {
+			IntVector left = IntVector.fromArray(INTS, heights, i);
+			IntVector sum = IntVector.zero(INTS);
+			for (int col = 1; col < State.COLS; ++col) {
+				IntVector right = IntVector.fromArray(INTS, heights, col * stride + i);
+				sum = sum.add(left.sub(right).abs());
+				left = right;
+			}
+			sum.intoArray(out, i);
+		}
+		scalar.roughness(heights, stride, i, to, out);
+	}
+
+	@Override
+	public void maxHeight(int[] heights, int stride, int from, int to, int[] out) {
+		int i = from;
+		for (int bound = from + INTS.loopBound(to - from); i < bound; i += INTS.length()) {
+			IntVector max = IntVector.fromArray(INTS, heights, i);
+			for (int col = 1; col < State.COLS; ++col) {
+				max = max.max(IntVector.fromArray(INTS, heights, col * stride + i));
+			}
+			max.intoArray(out, i);
+		}
+		scalar.maxHeight(heights, stride, i, to, out);
+	}
+
+	@Override
+	public void pitDepths(int[] heights, int stride, int from, int to, int[] out) {
+		int i = from;
+		for (int bound = from + INTS.loopBound(to - from); i < bound; i += INTS.length()) {
+			IntVector left = IntVector.fromArray(INTS, heights, i);
+			IntVector pit = IntVector.fromArray(INTS, heights, stride + i);
+			IntVector diff = pit.sub(left);
+			IntVector sum = IntVector.zero(INTS).add(diff, diff.compare(VectorOperators.GT, 2));
+			for (int col = 2; col < State.COLS; ++col) {
+				IntVector right = IntVector.fromArray(INTS, heights, col * stride + i);
+				IntVector minDiff = left.sub(pit).min(right.sub(pit));
+				sum = sum.add(minDiff, minDiff.compare(VectorOperators.GT, 2));
+				left = pit;
+				pit = right;
+			}
+			diff = left.sub(pit);
+			sum = sum.add(diff, diff.compare(VectorOperators.GT, 2));
+			sum.intoArray(out, i);
+		}
+		scalar.pitDepths(heights, stride, i, to, out);
+	}
+
+	@Override
+	public void heightDeviation(int[] heights, int stride, int from, int to, float[] out) {
+		int i = from;
+		for (int bound = from + INTS.loopBound(to - from); i < bound; i += INTS.length()) {
+			IntVector sum = IntVector.fromArray(INTS, heights, i);
+			for (int col = 1; col < State.COLS; ++col) {
+				sum = sum.add(IntVector.fromArray(INTS, heights, col * stride + i));
+			}
+			FloatVector mean = toFloat(sum).div((float) State.COLS);
+
+			FloatVector deviation = FloatVector.zero(mean.species());
+			for (int col = 0; col < State.COLS; ++col) {
+				FloatVector height = toFloat(IntVector.fromArray(INTS, heights, col * stride + i));
+				deviation = deviation.add(mean.sub(height).abs());
+			}
+			deviation.intoArray(out, i);
+		}
+		scalar.heightDeviation(heights, stride, i, to, out);
+	}
+
+	private static FloatVector toFloat(IntVector vector) {
+		return (FloatVector) vector.convert(VectorOperators.I2F, 0);
+	}
+
+	private final PlayerSkeleton.ScalarHeightFeatures scalar = new PlayerSkeleton.ScalarHeightFeatures();
+}